@@ -0,0 +1,114 @@
+package scraper.nodes.dev.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A UTF-8 line file which is only appended to.
+ * <p>
+ * Lines are written immediately and forced to disk on {@link #sync()}. Readers see complete lines only,
+ * up to {@link #end()}, while other threads append.
+ * </p>
+ */
+final class AppendLog implements Closeable {
+
+    private final FileChannel channel;
+    private final AtomicBoolean dirty = new AtomicBoolean(false);
+    // end of the last completely appended line
+    private volatile long end;
+
+    private AppendLog(FileChannel channel, long end) {
+        this.channel = channel;
+        this.end = end;
+    }
+
+    /** Opens the log, creating it if it does not exist */
+    static AppendLog open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long size = channel.size();
+            channel.position(size);
+
+            // appended lines must not continue an unterminated last line
+            if(size > 0 && !endsWithTerminator(channel, size)) {
+                write(channel, new byte[]{'\n'});
+                size++;
+            }
+
+            return new AppendLog(channel, size);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /** Reads lines of the log, <code>end</code> is at most {@link #end()} */
+    LineReader reader(long start, long end) {
+        return new LineReader(channel, StandardCharsets.UTF_8, start, end);
+    }
+
+    /** End of the complete lines of the log */
+    long end() {
+        return end;
+    }
+
+    void append(String line) throws IOException {
+        byte[] bytes = (line + "\n").getBytes(StandardCharsets.UTF_8);
+        synchronized (channel) {
+            write(channel, bytes);
+            end += bytes.length;
+        }
+        dirty.set(true);
+    }
+
+    /** True if the log contains the line, scans the whole log */
+    boolean contains(String line) throws IOException {
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        LineReader reader = reader(0, end);
+        while (reader.nextLine()) {
+            if(Arrays.equals(reader.buffer(), reader.lineFrom(), reader.lineTo(), bytes, 0, bytes.length)) return true;
+        }
+        return false;
+    }
+
+    /** Forces appended lines to disk, false if nothing was appended since the last sync */
+    boolean sync() throws IOException {
+        if(!dirty.getAndSet(false)) return false;
+
+        try {
+            channel.force(false);
+            return true;
+        } catch (IOException e) {
+            dirty.set(true);
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            sync();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private static boolean endsWithTerminator(FileChannel channel, long size) throws IOException {
+        ByteBuffer last = ByteBuffer.allocate(1);
+        channel.read(last, size - 1);
+        return last.get(0) == '\n' || last.get(0) == '\r';
+    }
+
+    private static void write(FileChannel channel, byte[] bytes) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) channel.write(buffer);
+    }
+}
@@ -0,0 +1,177 @@
+package scraper.nodes.dev.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Decompresses BGZF files with several threads.
+ * <p>
+ * BGZF files are gzip files of independent members of at most 64KB, each recording its compressed size in a
+ * <code>BC</code> extra subfield. Members are read sequentially, inflated concurrently a few members ahead
+ * of the reader and returned in order.
+ * </p>
+ */
+final class BgzfInputStream extends InputStream {
+
+    // fixed gzip header with the usual BGZF extra field
+    static final int HEADER_SIZE = 18;
+    // gzip header up to the extra field length
+    private static final int FIXED_HEADER_SIZE = 12;
+    // CRC32 and uncompressed size
+    private static final int TRAILER_SIZE = 8;
+
+    private final InputStream in;
+    private final ExecutorService inflaters;
+    private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+    private final int ahead;
+    private boolean end = false;
+
+    private byte[] current = new byte[0];
+    private int position = 0;
+
+    BgzfInputStream(InputStream in, int parallelism) {
+        this.in = in;
+        this.ahead = parallelism * 4;
+        this.inflaters = Executors.newFixedThreadPool(parallelism, r -> {
+            Thread t = new Thread(r, "bgzf-inflate");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /** True if the gzip header has an extra field starting with a <code>BC</code> subfield */
+    static boolean isBgzfHeader(byte[] header) {
+        return (header[3] & 4) != 0 && unsignedShort(header, 10) >= 6
+                && header[12] == 'B' && header[13] == 'C' && unsignedShort(header, 14) == 2;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if(!fill()) return -1;
+        return current[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if(len == 0) return 0;
+        if(!fill()) return -1;
+
+        int n = Math.min(len, current.length - position);
+        System.arraycopy(current, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        inflaters.shutdownNow();
+        in.close();
+    }
+
+    /** Makes sure there are unread bytes, false at the end of the file */
+    private boolean fill() throws IOException {
+        while (position == current.length) {
+            while (!end && pending.size() < ahead) {
+                byte[] member = readMember();
+                if(member == null) end = true;
+                else pending.add(inflaters.submit(() -> inflate(member)));
+            }
+
+            Future<byte[]> next = pending.poll();
+            if(next == null) return false;
+
+            try {
+                current = next.get();
+                position = 0;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while inflating");
+            } catch (ExecutionException e) {
+                if(e.getCause() instanceof IOException) throw (IOException) e.getCause();
+                throw new IOException(e.getCause());
+            }
+        }
+
+        return true;
+    }
+
+    /** The next complete member, null at the end of the file */
+    private byte[] readMember() throws IOException {
+        byte[] header = in.readNBytes(FIXED_HEADER_SIZE);
+        if(header.length == 0) return null;
+        if(header.length < FIXED_HEADER_SIZE) throw new EOFException("Truncated BGZF member");
+        if((header[0] & 0xFF) != 0x1F || (header[1] & 0xFF) != 0x8B || header[2] != 8 || (header[3] & 4) == 0) {
+            throw new IOException("Not a BGZF member");
+        }
+
+        int extraLength = unsignedShort(header, 10);
+        byte[] extra = readFully(extraLength);
+        int blockSize = -1;
+        for (int i = 0; i + 4 <= extraLength; i += 4 + unsignedShort(extra, i + 2)) {
+            int subfieldLength = unsignedShort(extra, i + 2);
+            if(i + 4 + subfieldLength > extraLength) throw new IOException("Corrupt BGZF extra field");
+            if(extra[i] == 'B' && extra[i + 1] == 'C' && subfieldLength == 2) {
+                blockSize = unsignedShort(extra, i + 4) + 1;
+            }
+        }
+        if(blockSize < FIXED_HEADER_SIZE + extraLength + TRAILER_SIZE) throw new IOException("Not a BGZF member");
+
+        // compressed data and trailer
+        return readFully(blockSize - FIXED_HEADER_SIZE - extraLength);
+    }
+
+    /** Inflates the compressed data and checks it against the trailer */
+    private static byte[] inflate(byte[] member) throws IOException {
+        int dataLength = member.length - TRAILER_SIZE;
+        long crc = unsignedInt(member, dataLength);
+        int size = (int) unsignedInt(member, dataLength + 4);
+
+        byte[] content = new byte[size];
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(member, 0, dataLength);
+            int inflated = 0;
+            while (inflated < size && !inflater.finished()) {
+                int n = inflater.inflate(content, inflated, size - inflated);
+                if(n == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                inflated += n;
+            }
+            if(inflated != size) throw new IOException("Corrupt BGZF member: size mismatch");
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt BGZF member: " + e.getMessage(), e);
+        } finally {
+            inflater.end();
+        }
+
+        CRC32 check = new CRC32();
+        check.update(content);
+        if(check.getValue() != crc) throw new IOException("Corrupt BGZF member: CRC mismatch");
+
+        return content;
+    }
+
+    private byte[] readFully(int length) throws IOException {
+        byte[] bytes = in.readNBytes(length);
+        if(bytes.length < length) throw new EOFException("Truncated BGZF member");
+        return bytes;
+    }
+
+    private static int unsignedShort(byte[] b, int i) {
+        return (b[i] & 0xFF) | (b[i + 1] & 0xFF) << 8;
+    }
+
+    private static long unsignedInt(byte[] b, int i) {
+        return (unsignedShort(b, i) | (long) unsignedShort(b, i + 2) << 16);
+    }
+}
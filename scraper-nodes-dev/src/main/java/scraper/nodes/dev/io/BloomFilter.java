@@ -0,0 +1,181 @@
+package scraper.nodes.dev.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * A Bloom filter of 128-bit fingerprints in a memory-mapped file.
+ * <p>
+ * The file starts with a header recording the size of the filter, the number of hash functions and how far the
+ * backing store was added to the filter; the bit array follows. A file is only reopened with the expected entries
+ * and false positive rate it was created for. Bits are set atomically and may be set concurrently, only regions with
+ * new bits are written by {@link #force(long)}.
+ * </p>
+ */
+final class BloomFilter implements Closeable {
+
+    private static final int MAGIC = 0x4D4C4253; // "SBLM"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int BITS_OFFSET = 8;
+    private static final int HASHES_OFFSET = 16;
+    private static final int INDEXED_OFFSET = 24;
+    // longs per mapped region of the bit array, 1GB
+    private static final int REGION_WORDS_BITS = 27;
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private final FileChannel channel;
+    private final MappedByteBuffer header;
+    private final MappedByteBuffer[] regions;
+    // 1 if a region has bits not yet forced to disk
+    private final AtomicIntegerArray dirty;
+    private final long bits;
+    private final int hashes;
+
+    private BloomFilter(FileChannel channel, long bits, int hashes) throws IOException {
+        this.channel = channel;
+        this.bits = bits;
+        this.hashes = hashes;
+
+        header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+        header.order(ByteOrder.LITTLE_ENDIAN);
+
+        long words = bits / 64;
+        regions = new MappedByteBuffer[(int) ((words - 1 >>> REGION_WORDS_BITS) + 1)];
+        for (int i = 0; i < regions.length; i++) {
+            long first = (long) i << REGION_WORDS_BITS;
+            long length = Math.min(words - first, 1L << REGION_WORDS_BITS) * 8;
+            regions[i] = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE + first * 8, length);
+        }
+        dirty = new AtomicIntegerArray(regions.length);
+    }
+
+    /**
+     * Maps the filter file, or creates a filter for <code>expected</code> entries with the given false positive
+     * rate if the file does not exist. An existing filter created for other parameters is rejected
+     */
+    static BloomFilter open(Path file, long expected, double falsePositiveRate) throws IOException {
+        // optimal size and number of hash functions
+        double ln2 = Math.log(2);
+        long optimalBits = (long) Math.ceil(-expected * Math.log(falsePositiveRate) / (ln2 * ln2));
+        optimalBits = Math.max(64, (optimalBits + 63) / 64 * 64);
+        int optimalHashes = (int) Math.max(1, Math.round((double) optimalBits / expected * ln2));
+
+        boolean exists = Files.exists(file) && Files.size(file) > 0;
+        FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            if(exists) {
+                long size = channel.size();
+                MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, HEADER_SIZE));
+                header.order(ByteOrder.LITTLE_ENDIAN);
+                if(header.limit() < HEADER_SIZE || header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+                    throw new IOException("Not a bloom filter: " + file);
+                }
+
+                long bits = header.getLong(BITS_OFFSET);
+                int hashes = header.getInt(HASHES_OFFSET);
+                if(bits <= 0 || bits % 64 != 0 || hashes <= 0 || size < HEADER_SIZE + bits / 8) {
+                    throw new IOException("Corrupt bloom filter: " + file);
+                }
+                if(bits != optimalBits || hashes != optimalHashes) {
+                    throw new IOException("Bloom filter " + file + " was created for other expected entries or false "
+                            + "positive rate, delete it to rebuild it");
+                }
+
+                return new BloomFilter(channel, bits, hashes);
+            }
+
+            // extends the file sparsely
+            channel.truncate(0);
+            channel.write(ByteBuffer.allocate(1), HEADER_SIZE + optimalBits / 8 - 1);
+
+            BloomFilter filter = new BloomFilter(channel, optimalBits, optimalHashes);
+            filter.header.putInt(0, MAGIC);
+            filter.header.putInt(4, VERSION);
+            filter.header.putLong(BITS_OFFSET, optimalBits);
+            filter.header.putInt(HASHES_OFFSET, optimalHashes);
+            filter.header.putLong(INDEXED_OFFSET, 0);
+            filter.header.force();
+            return filter;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /** False if the fingerprint was never put, true if it probably was */
+    boolean mightContain(long high, long low) {
+        for (int i = 0; i < hashes; i++) {
+            long bit = bit(high, low, i);
+            long word = (long) LONGS.get(region(bit), offset(bit));
+            if((word & mask(bit)) == 0) return false;
+        }
+        return true;
+    }
+
+    void put(long high, long low) {
+        for (int i = 0; i < hashes; i++) {
+            long bit = bit(high, low, i);
+            long word = (long) LONGS.getAndBitwiseOr(region(bit), offset(bit), mask(bit));
+            if((word & mask(bit)) == 0) {
+                int region = regionIndex(bit);
+                if(dirty.get(region) == 0) dirty.set(region, 1);
+            }
+        }
+    }
+
+    /** Offset of the backing store up to which all entries were put, as of the last {@link #force(long)} */
+    long indexed() {
+        return header.getLong(INDEXED_OFFSET);
+    }
+
+    /**
+     * Writes the regions changed by completed puts to disk, then records that all entries up to
+     * <code>indexed</code> are contained
+     */
+    void force(long indexed) {
+        for (int i = 0; i < regions.length; i++) {
+            // cleared first, so that concurrent puts mark the region again
+            if(dirty.getAndSet(i, 0) != 0) regions[i].force();
+        }
+        header.putLong(INDEXED_OFFSET, indexed);
+        header.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    // double hashing of the two halves of the fingerprint
+    private long bit(long high, long low, int i) {
+        return ((low + i * high) & Long.MAX_VALUE) % bits;
+    }
+
+    private MappedByteBuffer region(long bit) {
+        return regions[regionIndex(bit)];
+    }
+
+    private static int regionIndex(long bit) {
+        return (int) (bit >>> 6 >>> REGION_WORDS_BITS);
+    }
+
+    private static int offset(long bit) {
+        return (int) ((bit >>> 6) & ((1L << REGION_WORDS_BITS) - 1)) * 8;
+    }
+
+    private static long mask(long bit) {
+        return 1L << (bit & 63);
+    }
+}
@@ -0,0 +1,130 @@
+package scraper.nodes.dev.io;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * A line store of {@link PersistentDuplicateCheck} with an approximate index, a persistent {@link BloomFilter}
+ * next to the store file.
+ * <p>
+ * Memory does not grow with the store, the filter file is mapped instead of rebuilt on restart. Lines appended
+ * after the filter was last synced are added again when it is opened. Negative checks are exact, positive checks
+ * are false with the configured rate unless they are confirmed by scanning the store file.
+ * A store must not be appended to by other means while it is indexed.
+ * </p>
+ */
+final class BloomStore extends DuplicateStore {
+
+    private static final int STRIPES = 64;
+
+    private final AppendLog log;
+    private final BloomFilter filter;
+    // checks and appends of a fingerprint are atomic under the lock of its stripe
+    private final Object[] stripes = new Object[STRIPES];
+
+    private BloomStore(AppendLog log, BloomFilter filter) {
+        this.log = log;
+        this.filter = filter;
+        for (int i = 0; i < stripes.length; i++) stripes[i] = new Object();
+    }
+
+    /** The filter file of the store */
+    static Path filterOf(Path store) {
+        return store.resolveSibling(store.getFileName() + ".bloom");
+    }
+
+    /**
+     * Opens the store and maps its filter. A missing filter is sized for <code>expected</code> lines with the
+     * false positive rate and built from the store
+     */
+    static BloomStore open(Path store, long expected, double falsePositiveRate) throws IOException {
+        AppendLog log = AppendLog.open(store);
+        BloomFilter filter = null;
+        try {
+            filter = BloomFilter.open(filterOf(store), expected, falsePositiveRate);
+
+            // the filter of a replaced or truncated store is rebuilt
+            if(filter.indexed() > log.end()) {
+                filter.close();
+                filter = null;
+                Files.delete(filterOf(store));
+                filter = BloomFilter.open(filterOf(store), expected, falsePositiveRate);
+            }
+
+            long[] fingerprint = new long[2];
+            LineReader reader = log.reader(filter.indexed(), log.end());
+            while (reader.nextLine()) {
+                Fingerprints.hash(reader.buffer(), reader.lineFrom(), reader.lineTo(), fingerprint);
+                filter.put(fingerprint[0], fingerprint[1]);
+            }
+            filter.force(log.end());
+
+            return new BloomStore(log, filter);
+        } catch (IOException | RuntimeException e) {
+            if(filter != null) filter.close();
+            log.close();
+            throw e;
+        }
+    }
+
+    /**
+     * True if <code>check</code> is probably a line of the store, otherwise appends <code>append</code> as a new
+     * line. With <code>confirm</code>, probable lines are confirmed by scanning the store and the result is exact.
+     * Checking and adding is atomic for concurrent callers.
+     */
+    boolean checkOrAppend(String check, String append, boolean confirm) throws IOException {
+        long[] checked = Fingerprints.of(check);
+        long[] appended = (check.equals(append) ? checked : Fingerprints.of(append));
+
+        // lock both stripes in index order
+        int checkStripe = stripe(checked[0]);
+        int appendStripe = stripe(appended[0]);
+        synchronized (stripes[Math.min(checkStripe, appendStripe)]) {
+            synchronized (stripes[Math.max(checkStripe, appendStripe)]) {
+                if(filter.mightContain(checked[0], checked[1]) && (!confirm || log.contains(check))) return true;
+
+                // a failed append leaves no fingerprint of a line which is not in the store
+                log.append(append);
+                filter.put(appended[0], appended[1]);
+                return false;
+            }
+        }
+    }
+
+    /** Syncs the store, then the filter up to the synced end of the store */
+    @Override
+    void sync() throws IOException {
+        long end = indexedEnd(0);
+        if(log.sync()) filter.force(end);
+    }
+
+    /**
+     * End of the store while no line is between its append and its fingerprint, so that the filter contains all
+     * lines up to it. Takes the stripes in index order like {@link #checkOrAppend}
+     */
+    private long indexedEnd(int stripe) {
+        if(stripe == STRIPES) return log.end();
+        synchronized (stripes[stripe]) {
+            return indexedEnd(stripe + 1);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        super.close();
+        try {
+            sync();
+        } finally {
+            try {
+                filter.close();
+            } finally {
+                log.close();
+            }
+        }
+    }
+
+    private static int stripe(long high) {
+        return (int) (high >>> 58);
+    }
+}
@@ -0,0 +1,127 @@
+package scraper.nodes.dev.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Splits a byte stream, fed in blocks, into chunks of at most <code>splitAfterLines</code> lines
+ * and at most <code>splitAfterCharacters</code> characters.
+ * <p>
+ * A chunk ends directly after its last line terminator (<code>\n</code>, <code>\r\n</code> or <code>\r</code>)
+ * or before the character exceeding the character limit. All chunks together are the complete input.
+ * Characters are counted on the raw bytes, which requires a single-byte ASCII compatible charset or UTF-8,
+ * see {@link #supports(Charset)}.
+ * </p>
+ */
+final class ByteChunker {
+
+    /** Receives chunks as byte ranges of the chunker's buffer, valid only during the call */
+    interface Sink {
+        void chunk(byte[] bytes, int from, int to, long startOffset, long endOffset) throws IOException;
+    }
+
+    private final int splitAfterLines;
+    private final int splitAfterCharacters;
+    private final boolean utf8;
+    private final Sink sink;
+
+    private byte[] buffer = new byte[64 * 1024];
+    // current chunk is buffer[start, scan), unscanned bytes are buffer[scan, limit)
+    private int start = 0;
+    private int scan = 0;
+    private int limit = 0;
+    // stream offset of buffer[0]
+    private long base;
+
+    private int lines = 0;
+    private int chars = 0;
+
+    ByteChunker(int splitAfterLines, int splitAfterCharacters, Charset charset, long startOffset, Sink sink) {
+        this.splitAfterLines = splitAfterLines;
+        this.splitAfterCharacters = splitAfterCharacters;
+        this.utf8 = charset.equals(StandardCharsets.UTF_8);
+        this.base = startOffset;
+        this.sink = sink;
+    }
+
+    /** True if characters and lines of the charset can be counted on raw bytes */
+    static boolean supports(Charset charset) {
+        if(charset.equals(StandardCharsets.UTF_8)) return true;
+        return LineRegions.isAsciiCompatible(charset) && charset.newEncoder().maxBytesPerChar() == 1;
+    }
+
+    /** Consumes all remaining bytes of the block */
+    void feed(ByteBuffer block) throws IOException {
+        int length = block.remaining();
+        ensureCapacity(length);
+        block.get(buffer, limit, length);
+        limit += length;
+        scan(false);
+    }
+
+    /** Consumes <code>bytes[from, to)</code> */
+    void feed(byte[] bytes, int from, int to) throws IOException {
+        feed(ByteBuffer.wrap(bytes, from, to - from));
+    }
+
+    /** Emits the rest of the input as the last chunk */
+    void finish() throws IOException {
+        scan(true);
+        if(limit > start) emit(limit);
+    }
+
+    private void scan(boolean end) throws IOException {
+        while (scan < limit) {
+            byte b = buffer[scan];
+
+            // a \r at the end of the input so far may be followed by \n
+            if(b == '\r' && scan + 1 == limit && !end) return;
+
+            // UTF-8 continuation bytes do not start a character
+            if(!utf8 || (b & 0xC0) != 0x80) {
+                if(chars == splitAfterCharacters) emit(scan);
+                chars++;
+            }
+
+            if(b == '\n' || (b == '\r' && (scan + 1 == limit || buffer[scan + 1] != '\n'))) {
+                lines++;
+                if(lines == splitAfterLines) {
+                    scan++;
+                    emit(scan);
+                    continue;
+                }
+            }
+
+            scan++;
+        }
+    }
+
+    private void emit(int to) throws IOException {
+        if(to == start) return;
+
+        sink.chunk(buffer, start, to, base + start, base + to);
+        start = to;
+        lines = 0;
+        chars = 0;
+    }
+
+    private void ensureCapacity(int length) {
+        if(limit + length <= buffer.length) return;
+
+        if(start > 0) {
+            System.arraycopy(buffer, start, buffer, 0, limit - start);
+            base += start;
+            scan -= start;
+            limit -= start;
+            start = 0;
+        }
+
+        if(limit + length > buffer.length) {
+            byte[] grown = new byte[Math.max(buffer.length * 2, limit + length)];
+            System.arraycopy(buffer, 0, grown, 0, limit);
+            buffer = grown;
+        }
+    }
+}
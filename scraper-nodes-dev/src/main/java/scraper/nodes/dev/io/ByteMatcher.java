@@ -0,0 +1,136 @@
+package scraper.nodes.dev.io;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Finds any of several byte patterns in one pass with an Aho-Corasick automaton.
+ * <p>
+ * The automaton is built as a complete transition table, so every input byte costs one table lookup.
+ * A single pattern is searched directly, comparing bytes is cheaper than following transitions.
+ * For UTF-8 and single-byte charsets, a pattern encoded with the charset is contained in an encoded line exactly
+ * if the decoded pattern is contained in the decoded line. Instances are immutable and can be shared between threads.
+ * </p>
+ */
+final class ByteMatcher {
+
+    // table[state + byte] is the next state, states are row offsets of 256 entries, state 0 is the root
+    private final int[] table;
+    // accepting[state >> 8] is true if a pattern ends in the state or in one of its suffix states
+    private final boolean[] accepting;
+    // the pattern if there is exactly one non-empty pattern, null otherwise
+    private final byte[] single;
+
+    private ByteMatcher(int[] table, boolean[] accepting, byte[] single) {
+        this.table = table;
+        this.accepting = accepting;
+        this.single = single;
+    }
+
+    /** A matcher for the given patterns; an empty pattern matches everything, no pattern matches nothing */
+    static ByteMatcher of(List<byte[]> patterns) {
+        List<int[]> trie = new ArrayList<>();
+        List<Boolean> ends = new ArrayList<>();
+        trie.add(newState());
+        ends.add(false);
+
+        for (byte[] pattern : patterns) {
+            int state = 0;
+            for (byte b : pattern) {
+                int next = trie.get(state)[b & 0xFF];
+                if(next == -1) {
+                    next = trie.size();
+                    trie.add(newState());
+                    ends.add(false);
+                    trie.get(state)[b & 0xFF] = next;
+                }
+                state = next;
+            }
+            ends.set(state, true);
+        }
+
+        int[][] transitions = trie.toArray(new int[0][]);
+        boolean[] accepting = new boolean[transitions.length];
+        for (int i = 0; i < accepting.length; i++) accepting[i] = ends.get(i);
+
+        // breadth first, the failure state of a state is always complete before the state itself
+        int[] failure = new int[transitions.length];
+        Deque<Integer> queue = new ArrayDeque<>();
+        for (int b = 0; b < 256; b++) {
+            int next = transitions[0][b];
+            if(next == -1) {
+                transitions[0][b] = 0;
+            } else {
+                failure[next] = 0;
+                queue.add(next);
+            }
+        }
+
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            accepting[state] |= accepting[failure[state]];
+
+            for (int b = 0; b < 256; b++) {
+                int next = transitions[state][b];
+                if(next == -1) {
+                    transitions[state][b] = transitions[failure[state]][b];
+                } else {
+                    failure[next] = transitions[failure[state]][b];
+                    queue.add(next);
+                }
+            }
+        }
+
+        int[] table = new int[transitions.length * 256];
+        for (int state = 0; state < transitions.length; state++) {
+            for (int b = 0; b < 256; b++) table[state * 256 + b] = transitions[state][b] * 256;
+        }
+
+        byte[] single = (patterns.size() == 1 && patterns.get(0).length > 0 ? patterns.get(0) : null);
+        return new ByteMatcher(table, accepting, single);
+    }
+
+    /** True if no pattern was given */
+    boolean isEmpty() {
+        return accepting.length == 1 && !accepting[0];
+    }
+
+    /** True if any pattern is contained in <code>bytes[from, to)</code> */
+    boolean find(byte[] bytes, int from, int to) {
+        if(single != null) return indexOf(bytes, from, to, single) >= 0;
+        if(accepting[0]) return true;
+
+        int state = 0;
+        for (int i = from; i < to; i++) {
+            state = table[state + (bytes[i] & 0xFF)];
+            if(accepting[state >> 8]) return true;
+        }
+
+        return false;
+    }
+
+    private static int indexOf(byte[] bytes, int from, int to, byte[] pattern) {
+        byte first = pattern[0];
+        int last = to - pattern.length;
+        for (int i = from; i <= last; i++) {
+            if(bytes[i] == first && startsWith(bytes, i, pattern)) return i;
+        }
+        return -1;
+    }
+
+    private static boolean startsWith(byte[] bytes, int offset, byte[] pattern) {
+        for (int j = 1; j < pattern.length; j++) {
+            if(bytes[offset + j] != pattern[j]) return false;
+        }
+        return true;
+    }
+
+    private static int[] newState() {
+        int[] state = new int[256];
+        Arrays.fill(state, -1);
+        return state;
+    }
+}
@@ -0,0 +1,137 @@
+package scraper.nodes.dev.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+
+/**
+ * Persists how far an input file was streamed, so that a restarted reader continues after the last emitted line
+ * or chunk instead of at the start of the file.
+ * <p>
+ * The checkpoint holds the byte offset after the last emitted element, the number of emitted elements and the
+ * identity of the input file. Advancing only updates memory; offsets are group committed to disk at most once per
+ * interval and when the checkpoint is closed, by atomically replacing the checkpoint file with a synced copy.
+ * A crash therefore repeats at most one interval of elements, delivery is at least once.
+ * </p>
+ * <p>
+ * A checkpoint of another file, of a replaced file or of a file shorter than the checkpoint offset is ignored.
+ * Not thread-safe, a checkpoint is advanced by the emitting thread only.
+ * </p>
+ */
+final class Checkpoint implements Closeable {
+
+    private final Path file;
+    private final String input;
+    private final String inputKey;
+    private final long interval;
+
+    private long offset;
+    private long count;
+    private long committedOffset;
+    private long lastCommit = System.currentTimeMillis();
+
+    private Checkpoint(Path file, String input, String inputKey, long interval, long offset, long count) {
+        this.file = file;
+        this.input = input;
+        this.inputKey = inputKey;
+        this.interval = interval;
+        this.offset = offset;
+        this.count = count;
+        this.committedOffset = offset;
+    }
+
+    /**
+     * Opens the checkpoint of <code>input</code> stored in <code>file</code>, starting at 0 if there is none.
+     * <code>size</code> is the size of the streamed content, or -1 if it is unknown before reading.
+     */
+    static Checkpoint open(Path file, Path input, long size, long interval) throws IOException {
+        String path = input.toAbsolutePath().normalize().toString();
+        Object key = Files.readAttributes(input, BasicFileAttributes.class).fileKey();
+        String inputKey = (key == null ? "" : key.toString());
+
+        if(Files.exists(file)) {
+            List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+            if(lines.size() == 4 && lines.get(0).equals(path) && lines.get(1).equals(inputKey)) {
+                try {
+                    long offset = Long.parseLong(lines.get(2));
+                    long count = Long.parseLong(lines.get(3));
+                    if(offset >= 0 && count >= 0 && (size < 0 || offset <= size)) {
+                        return new Checkpoint(file, path, inputKey, interval, offset, count);
+                    }
+                } catch (NumberFormatException ignored) {
+                    // corrupt checkpoint, start over
+                }
+            }
+        }
+
+        return new Checkpoint(file, path, inputKey, interval, 0, 0);
+    }
+
+    /** Offset to continue reading at */
+    long offset() {
+        return offset;
+    }
+
+    /** Elements emitted before {@link #offset()} */
+    long count() {
+        return count;
+    }
+
+    /** Records that all elements up to <code>offset</code> were emitted, commits if the interval elapsed */
+    void advance(long offset, long count) throws IOException {
+        this.offset = offset;
+        this.count = count;
+
+        if(System.currentTimeMillis() - lastCommit >= interval) commit();
+    }
+
+    /** Skips the stream to the checkpoint, e.g. decompressed content which cannot be seeked */
+    void skip(InputStream in) throws IOException {
+        long remaining = offset;
+        while (remaining > 0) {
+            long skipped = in.skip(remaining);
+            if(skipped <= 0) {
+                if(in.read() < 0) return;
+                skipped = 1;
+            }
+            remaining -= skipped;
+        }
+    }
+
+    /** Writes the checkpoint if it advanced since the last commit */
+    void commit() throws IOException {
+        lastCommit = System.currentTimeMillis();
+        if(offset == committedOffset && Files.exists(file)) return;
+
+        String content = input + "\n" + inputKey + "\n" + offset + "\n" + count + "\n";
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer bytes = ByteBuffer.wrap(content.getBytes(StandardCharsets.UTF_8));
+            while (bytes.hasRemaining()) channel.write(bytes);
+            channel.force(true);
+        }
+
+        try {
+            Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+        committedOffset = offset;
+    }
+
+    @Override
+    public void close() throws IOException {
+        commit();
+    }
+}
@@ -0,0 +1,73 @@
+package scraper.nodes.dev.io;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Detects and opens compressed input files, so that readers see the decompressed content.
+ * <p>
+ * gzip files are detected by their magic bytes, zlib streams by the extension <code>.zz</code> or
+ * <code>.deflate</code> and a valid zlib header. Multi-member gzip files are decompressed member after member,
+ * as member boundaries are only known after inflating. BGZF files, whose members record their compressed size,
+ * can be decompressed in parallel.
+ * </p>
+ */
+final class Compression {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private Compression() {}
+
+    enum Format { NONE, GZIP, BGZF, ZLIB }
+
+    static Format detect(Path file) throws IOException {
+        byte[] header = new byte[BgzfInputStream.HEADER_SIZE];
+        int read;
+        try (InputStream in = Files.newInputStream(file)) {
+            read = in.readNBytes(header, 0, header.length);
+        }
+
+        if(read >= 10 && (header[0] & 0xFF) == 0x1F && (header[1] & 0xFF) == 0x8B && header[2] == 8) {
+            return (read == header.length && BgzfInputStream.isBgzfHeader(header) ? Format.BGZF : Format.GZIP);
+        }
+
+        String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+        if((name.endsWith(".zz") || name.endsWith(".deflate")) && read >= 2 && isZlibHeader(header)) return Format.ZLIB;
+
+        return Format.NONE;
+    }
+
+    /** Compression method deflate and a valid header checksum */
+    private static boolean isZlibHeader(byte[] header) {
+        int cmf = header[0] & 0xFF;
+        int flg = header[1] & 0xFF;
+        return (cmf & 0x0F) == 8 && ((cmf << 8) | flg) % 31 == 0;
+    }
+
+    /** Opens the decompressed content, BGZF files are inflated by <code>parallelism</code> threads */
+    static InputStream open(Path file, Format format, int parallelism) throws IOException {
+        InputStream in = Files.newInputStream(file);
+        try {
+            switch (format) {
+                case GZIP:
+                    return new GZIPInputStream(in, BUFFER_SIZE);
+                case BGZF:
+                    if(parallelism > 1) return new BgzfInputStream(new BufferedInputStream(in, BUFFER_SIZE), parallelism);
+                    return new GZIPInputStream(in, BUFFER_SIZE);
+                case ZLIB:
+                    return new InflaterInputStream(new BufferedInputStream(in, BUFFER_SIZE));
+                default:
+                    return in;
+            }
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package scraper.nodes.dev.io;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * A line store of {@link PersistentDuplicateCheck}, indexed by fingerprints of its lines.
+ * <p>
+ * The store file is read once when the index is opened, and its lines are kept as 128-bit fingerprints in a
+ * {@link FingerprintSet}, so a check does not depend on the store size.
+ * A store must not be appended to by other means while it is indexed.
+ * </p>
+ */
+final class DuplicateIndex extends DuplicateStore {
+
+    // estimated bytes per stored line to size the index
+    private static final int LINE_SIZE = 64;
+
+    private final AppendLog log;
+    private final FingerprintSet fingerprints;
+
+    private DuplicateIndex(AppendLog log, FingerprintSet fingerprints) {
+        this.log = log;
+        this.fingerprints = fingerprints;
+    }
+
+    /** Opens and indexes the store, creating it if it does not exist */
+    static DuplicateIndex open(Path store) throws IOException {
+        AppendLog log = AppendLog.open(store);
+        try {
+            FingerprintSet fingerprints = new FingerprintSet(log.end() / LINE_SIZE);
+
+            long[] fingerprint = new long[2];
+            LineReader reader = log.reader(0, log.end());
+            while (reader.nextLine()) {
+                Fingerprints.hash(reader.buffer(), reader.lineFrom(), reader.lineTo(), fingerprint);
+                fingerprints.add(fingerprint[0], fingerprint[1]);
+            }
+
+            return new DuplicateIndex(log, fingerprints);
+        } catch (IOException | RuntimeException e) {
+            log.close();
+            throw e;
+        }
+    }
+
+    /**
+     * True if <code>check</code> is a line of the store, otherwise appends <code>append</code> as a new line.
+     * Checking and adding is atomic for concurrent callers.
+     */
+    boolean checkOrAppend(String check, String append) throws IOException {
+        long[] checked = Fingerprints.of(check);
+        long[] appended = checked;
+        boolean added;
+        if(check.equals(append)) {
+            if(!fingerprints.add(checked[0], checked[1])) return true;
+            added = true;
+        } else {
+            appended = Fingerprints.of(append);
+            FingerprintSet.Outcome outcome = fingerprints.containsOrAdd(checked[0], checked[1], appended[0], appended[1]);
+            if(outcome == FingerprintSet.Outcome.CONTAINED) return true;
+            added = (outcome == FingerprintSet.Outcome.ADDED);
+        }
+
+        try {
+            log.append(append);
+        } catch (IOException | RuntimeException e) {
+            // the line is not stored, it must not be reported as a duplicate later
+            if(added) fingerprints.remove(appended[0], appended[1]);
+            throw e;
+        }
+        return false;
+    }
+
+    boolean contains(String line) {
+        long[] fingerprint = Fingerprints.of(line);
+        return fingerprints.contains(fingerprint[0], fingerprint[1]);
+    }
+
+    @Override
+    void sync() throws IOException {
+        log.sync();
+    }
+
+    @Override
+    public void close() throws IOException {
+        super.close();
+        log.close();
+    }
+}
@@ -0,0 +1,103 @@
+package scraper.nodes.dev.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A store of {@link PersistentDuplicateCheck} kept open between checks.
+ * <p>
+ * Stores are shared by all nodes of a JVM using the same store file and settings, see {@link #shared}.
+ * Appended entries are synced to disk by a background task at most once per sync interval (group commit),
+ * so a crash of the machine may lose the entries of the last interval, a crash of the process does not.
+ * </p>
+ */
+abstract class DuplicateStore implements Closeable {
+
+    // completed once the store is open, so that opening a store does not block the map
+    private static final Map<Path, CompletableFuture<DuplicateStore>> SHARED = new ConcurrentHashMap<>();
+    private static final ScheduledExecutorService SYNC = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "duplicate-store-sync");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private Path key;
+    private CompletableFuture<DuplicateStore> entry;
+    private long syncInterval;
+    private Object settings;
+    private ScheduledFuture<?> syncing;
+
+    @FunctionalInterface
+    interface Opener<S extends DuplicateStore> {
+        S open(Path store) throws IOException;
+    }
+
+    /**
+     * The open store of the file shared by all nodes of this JVM, opened on first use by the first caller, later
+     * callers wait for it. Nodes sharing a store must use the same <code>syncInterval</code> and equal
+     * <code>settings</code> (null for none), those the store was opened with
+     */
+    static <S extends DuplicateStore> S shared(Path store, Class<S> type, long syncInterval, Object settings,
+                                               Opener<S> opener) throws IOException {
+        Path path = store.toAbsolutePath().normalize();
+        CompletableFuture<DuplicateStore> opening = new CompletableFuture<>();
+        CompletableFuture<DuplicateStore> entry = SHARED.putIfAbsent(path, opening);
+        if(entry == null) {
+            entry = opening;
+            try {
+                DuplicateStore opened = opener.open(path);
+                opened.key = path;
+                opened.entry = opening;
+                opened.syncInterval = syncInterval;
+                opened.settings = settings;
+                opened.syncing = SYNC.scheduleWithFixedDelay(() -> {
+                    try {
+                        opened.sync();
+                    } catch (IOException ignored) {
+                        // retried with the next interval
+                    }
+                }, syncInterval, syncInterval, TimeUnit.MILLISECONDS);
+                opening.complete(opened);
+            } catch (IOException | RuntimeException e) {
+                // the next caller tries again
+                SHARED.remove(path, opening);
+                opening.completeExceptionally(e);
+                throw e;
+            }
+        }
+
+        DuplicateStore shared;
+        try {
+            shared = entry.join();
+        } catch (CompletionException e) {
+            throw new IOException("Store " + store + " could not be opened: " + e.getCause().getMessage(), e.getCause());
+        }
+
+        if(!type.isInstance(shared)) throw new IOException("Store " + store + " is already in use by another engine");
+        if(shared.syncInterval != syncInterval || !Objects.equals(shared.settings, settings)) {
+            throw new IOException("Store " + store + " is already in use with other settings: sync interval "
+                    + shared.syncInterval + ", " + shared.settings);
+        }
+        return type.cast(shared);
+    }
+
+    /** Forces appended entries to disk */
+    abstract void sync() throws IOException;
+
+    /** Stops syncing in the background and unshares the store, implementations sync and release their files */
+    @Override
+    public void close() throws IOException {
+        if(syncing != null) syncing.cancel(false);
+        if(key != null) SHARED.remove(key, entry);
+    }
+}
@@ -0,0 +1,133 @@
+package scraper.nodes.dev.io;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Contents of read files, shared by all {@link ReadFile} nodes of a JVM.
+ * <p>
+ * Entries are keyed by path, charset and join string and are valid as long as size and
+ * last modified time of the file are unchanged. The least recently used entries are evicted
+ * once the estimated size of all contents exceeds the largest requested capacity.
+ * </p>
+ */
+final class FileContentCache {
+
+    private static final FileContentCache SHARED = new FileContentCache();
+
+    // guarded by this, access ordered
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes = 0;
+    private long maxBytes = 0;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    private FileContentCache() {}
+
+    /** The shared cache, grown to at least <code>maxBytes</code> */
+    static FileContentCache shared(long maxBytes) {
+        synchronized (SHARED) {
+            SHARED.maxBytes = Math.max(SHARED.maxBytes, maxBytes);
+        }
+        return SHARED;
+    }
+
+    /**
+     * Cached content if the file is unchanged, null otherwise. Content read from more than <code>maxRead</code>
+     * bytes is not served, so that the caller reads the file and rejects it as too large.
+     */
+    String get(Path path, Charset charset, String join, BasicFileAttributes attributes, long maxRead) {
+        Key key = new Key(path, charset, join);
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if(entry != null && entry.size == attributes.size()
+                    && entry.lastModified == attributes.lastModifiedTime().toMillis() && entry.read <= maxRead) {
+                hits.increment();
+                return entry.content;
+            }
+        }
+
+        misses.increment();
+        return null;
+    }
+
+    /** Caches content read from <code>read</code> bytes, the decompressed size of compressed files */
+    void put(Path path, Charset charset, String join, BasicFileAttributes attributes, long read, String content) {
+        Key key = new Key(path, charset, join);
+        Entry entry = new Entry(content, read, attributes.size(), attributes.lastModifiedTime().toMillis());
+
+        synchronized (this) {
+            // too large to be cached without evicting everything else
+            if(entry.bytes() > maxBytes / 2) return;
+
+            Entry replaced = entries.put(key, entry);
+            if(replaced != null) bytes -= replaced.bytes();
+            bytes += entry.bytes();
+
+            Iterator<Entry> eldest = entries.values().iterator();
+            while (bytes > maxBytes && eldest.hasNext()) {
+                bytes -= eldest.next().bytes();
+                eldest.remove();
+            }
+        }
+    }
+
+    /** Attributes to validate cache entries with */
+    static BasicFileAttributes attributes(Path path) throws IOException {
+        return Files.readAttributes(path, BasicFileAttributes.class);
+    }
+
+    long getHits() { return hits.sum(); }
+
+    long getMisses() { return misses.sum(); }
+
+    private static final class Key {
+        final Path path;
+        final Charset charset;
+        final String join;
+
+        Key(Path path, Charset charset, String join) {
+            this.path = path.toAbsolutePath().normalize();
+            this.charset = charset;
+            this.join = join;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return path.equals(key.path) && charset.equals(key.charset) && join.equals(key.join);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(path, charset, join);
+        }
+    }
+
+    private static final class Entry {
+        final String content;
+        final long read;
+        final long size;
+        final long lastModified;
+
+        Entry(String content, long read, long size, long lastModified) {
+            this.content = content;
+            this.read = read;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        // upper bound, strings of Latin-1 characters need half
+        long bytes() { return 2L * content.length(); }
+    }
+}
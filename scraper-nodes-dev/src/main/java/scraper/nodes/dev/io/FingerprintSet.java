@@ -0,0 +1,194 @@
+package scraper.nodes.dev.io;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+
+/**
+ * A concurrent set of 128-bit fingerprints in off-heap open addressing tables.
+ * <p>
+ * The set is split into stripes by the high bits of a fingerprint. Every stripe is a linear probing table of
+ * primitive longs in a direct buffer and has its own lock, so concurrent operations only contend on the same stripe.
+ * The all-zero fingerprint marks empty slots and is stored as <code>(0, 1)</code> instead.
+ * </p>
+ */
+final class FingerprintSet {
+
+    private static final int STRIPE_BITS = 6;
+    private static final double MAX_LOAD = 0.7;
+    // largest table of a stripe, 16 bytes per slot must fit one direct buffer
+    private static final int MAX_SLOTS = 1 << 26;
+
+    private final Stripe[] stripes = new Stripe[1 << STRIPE_BITS];
+
+    /** Outcome of {@link #containsOrAdd} */
+    enum Outcome {
+        /** The first fingerprint is contained */
+        CONTAINED,
+        /** The first fingerprint is not contained, the second was added */
+        ADDED,
+        /** The first fingerprint is not contained, the second was contained already */
+        PRESENT
+    }
+
+    FingerprintSet(long expected) {
+        long perStripe = (long) (expected / stripes.length / MAX_LOAD) + 1;
+        int slots = 16;
+        while (slots < perStripe && slots < MAX_SLOTS) slots <<= 1;
+
+        for (int i = 0; i < stripes.length; i++) stripes[i] = new Stripe(slots);
+    }
+
+    /** Adds the fingerprint, false if it was already contained */
+    boolean add(long high, long low) {
+        Stripe stripe = stripe(high);
+        synchronized (stripe) {
+            return stripe.add(high, normalize(high, low));
+        }
+    }
+
+    /** Removes the fingerprint, false if it was not contained */
+    boolean remove(long high, long low) {
+        Stripe stripe = stripe(high);
+        synchronized (stripe) {
+            return stripe.remove(high, normalize(high, low));
+        }
+    }
+
+    boolean contains(long high, long low) {
+        Stripe stripe = stripe(high);
+        synchronized (stripe) {
+            return stripe.contains(high, normalize(high, low));
+        }
+    }
+
+    /** Atomically checks the first fingerprint and adds the second if the first is not contained */
+    Outcome containsOrAdd(long checkHigh, long checkLow, long addHigh, long addLow) {
+        Stripe check = stripe(checkHigh);
+        Stripe add = stripe(addHigh);
+
+        // lock both stripes in index order
+        Stripe first = (index(checkHigh) <= index(addHigh) ? check : add);
+        Stripe second = (first == check ? add : check);
+        synchronized (first) {
+            synchronized (second) {
+                if(check.contains(checkHigh, normalize(checkHigh, checkLow))) return Outcome.CONTAINED;
+                return (add.add(addHigh, normalize(addHigh, addLow)) ? Outcome.ADDED : Outcome.PRESENT);
+            }
+        }
+    }
+
+    long size() {
+        long size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size;
+            }
+        }
+        return size;
+    }
+
+    private Stripe stripe(long high) {
+        return stripes[index(high)];
+    }
+
+    private static int index(long high) {
+        return (int) (high >>> (64 - STRIPE_BITS));
+    }
+
+    private static long normalize(long high, long low) {
+        return (high == 0 && low == 0 ? 1 : low);
+    }
+
+    /** One linear probing table, slot i holds the longs 2i and 2i + 1. Guarded by the stripe's monitor */
+    private static final class Stripe {
+        private LongBuffer table;
+        private int mask;
+        private int size = 0;
+
+        private Stripe(int slots) {
+            table = allocate(slots);
+            mask = slots - 1;
+        }
+
+        private boolean contains(long high, long low) {
+            for (int slot = slot(low, mask); ; slot = (slot + 1) & mask) {
+                long h = table.get(2 * slot);
+                long l = table.get(2 * slot + 1);
+                if(h == high && l == low) return true;
+                if(h == 0 && l == 0) return false;
+            }
+        }
+
+        private boolean add(long high, long low) {
+            for (int slot = slot(low, mask); ; slot = (slot + 1) & mask) {
+                long h = table.get(2 * slot);
+                long l = table.get(2 * slot + 1);
+                if(h == high && l == low) return false;
+                if(h == 0 && l == 0) {
+                    // probing needs at least one empty slot
+                    if(size == mask) throw new IllegalStateException("Fingerprint set is full");
+
+                    table.put(2 * slot, high);
+                    table.put(2 * slot + 1, low);
+                    if(++size > (mask + 1) * MAX_LOAD && mask + 1 < MAX_SLOTS) grow();
+                    return true;
+                }
+            }
+        }
+
+        private boolean remove(long high, long low) {
+            int empty = slot(low, mask);
+            while (table.get(2 * empty) != high || table.get(2 * empty + 1) != low) {
+                if(table.get(2 * empty) == 0 && table.get(2 * empty + 1) == 0) return false;
+                empty = (empty + 1) & mask;
+            }
+
+            // shifts following entries back, probing stops at the first empty slot
+            for (int next = (empty + 1) & mask; ; next = (next + 1) & mask) {
+                long h = table.get(2 * next);
+                long l = table.get(2 * next + 1);
+                if(h == 0 && l == 0) break;
+
+                // an entry may fill the gap if its home slot is not between the gap and itself
+                if(((next - slot(l, mask)) & mask) >= ((next - empty) & mask)) {
+                    table.put(2 * empty, h);
+                    table.put(2 * empty + 1, l);
+                    empty = next;
+                }
+            }
+
+            table.put(2 * empty, 0);
+            table.put(2 * empty + 1, 0);
+            size--;
+            return true;
+        }
+
+        private void grow() {
+            int slots = (mask + 1) * 2;
+            LongBuffer old = table;
+            int oldSlots = mask + 1;
+            table = allocate(slots);
+            mask = slots - 1;
+
+            for (int i = 0; i < oldSlots; i++) {
+                long h = old.get(2 * i);
+                long l = old.get(2 * i + 1);
+                if(h == 0 && l == 0) continue;
+
+                int slot = slot(l, mask);
+                while (table.get(2 * slot) != 0 || table.get(2 * slot + 1) != 0) slot = (slot + 1) & mask;
+                table.put(2 * slot, h);
+                table.put(2 * slot + 1, l);
+            }
+        }
+
+        private static int slot(long low, int mask) {
+            return (int) (low ^ (low >>> 32)) & mask;
+        }
+
+        private static LongBuffer allocate(int slots) {
+            return ByteBuffer.allocateDirect(slots * 16).order(ByteOrder.nativeOrder()).asLongBuffer();
+        }
+    }
+}
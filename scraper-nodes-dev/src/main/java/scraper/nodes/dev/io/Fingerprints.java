@@ -0,0 +1,91 @@
+package scraper.nodes.dev.io;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 128-bit fingerprints of byte strings with MurmurHash3 (x64, seed 0).
+ * Fingerprints of lines are persisted by the duplicate check stores, so the function must never change.
+ */
+final class Fingerprints {
+
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    private Fingerprints() {}
+
+    /** Fingerprint of the UTF-8 encoding of the line, high half at index 0 */
+    static long[] of(String line) {
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        long[] fingerprint = new long[2];
+        hash(bytes, 0, bytes.length, fingerprint);
+        return fingerprint;
+    }
+
+    /** Writes the fingerprint of <code>bytes[from, to)</code> to <code>out[0]</code> and <code>out[1]</code> */
+    static void hash(byte[] bytes, int from, int to, long[] out) {
+        int length = to - from;
+        long h1 = 0;
+        long h2 = 0;
+
+        int blocks = from + (length & ~15);
+        for (int i = from; i < blocks; i += 16) {
+            long k1 = (long) LONGS.get(bytes, i);
+            long k2 = (long) LONGS.get(bytes, i + 8);
+
+            h1 ^= mixK1(k1);
+            h1 = Long.rotateLeft(h1, 27);
+            h1 += h2;
+            h1 = h1 * 5 + 0x52dce729;
+
+            h2 ^= mixK2(k2);
+            h2 = Long.rotateLeft(h2, 31);
+            h2 += h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+
+        long k1 = 0;
+        long k2 = 0;
+        int tail = length & 15;
+        for (int i = tail - 1; i >= 8; i--) k2 ^= (long) (bytes[blocks + i] & 0xFF) << ((i - 8) * 8);
+        for (int i = Math.min(tail, 8) - 1; i >= 0; i--) k1 ^= (long) (bytes[blocks + i] & 0xFF) << (i * 8);
+        if(tail > 8) h2 ^= mixK2(k2);
+        if(tail > 0) h1 ^= mixK1(k1);
+
+        h1 ^= length;
+        h2 ^= length;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix(h1);
+        h2 = fmix(h2);
+        h1 += h2;
+        h2 += h1;
+
+        out[0] = h1;
+        out[1] = h2;
+    }
+
+    private static long mixK1(long k1) {
+        k1 *= C1;
+        k1 = Long.rotateLeft(k1, 31);
+        return k1 * C2;
+    }
+
+    private static long mixK2(long k2) {
+        k2 *= C2;
+        k2 = Long.rotateLeft(k2, 33);
+        return k2 * C1;
+    }
+
+    private static long fmix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+}
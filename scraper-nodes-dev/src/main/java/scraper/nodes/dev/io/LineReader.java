@@ -0,0 +1,158 @@
+package scraper.nodes.dev.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Reads the lines of a byte range of a file with positional channel reads, or the lines of a stream.
+ * <p>
+ * Lines end with <code>\n</code>, <code>\r</code> or <code>\r\n</code> like {@link java.io.BufferedReader#readLine()};
+ * each line is decoded once from the read buffer. Only valid for charsets which encode these terminators as
+ * single ASCII bytes, see {@link LineRegions#isAsciiCompatible(Charset)}.
+ * The reader does not own the channel or stream.
+ * </p>
+ */
+final class LineReader {
+
+    // exactly one of channel and stream is set
+    private final FileChannel channel;
+    private final InputStream stream;
+    private final Charset charset;
+
+    private byte[] buffer;
+    // unread bytes are buffer[start, limit)
+    private int start = 0;
+    private int limit = 0;
+    // current line is buffer[lineFrom, lineTo)
+    private int lineFrom = 0;
+    private int lineTo = 0;
+    // next file position to read, and end of the range
+    private long position;
+    private long end;
+
+    LineReader(FileChannel channel, Charset charset, long start, long end) {
+        this(channel, charset, start, end, 64 * 1024);
+    }
+
+    LineReader(FileChannel channel, Charset charset, long start, long end, int bufferSize) {
+        this.channel = channel;
+        this.stream = null;
+        this.charset = charset;
+        this.position = start;
+        this.end = end;
+        this.buffer = new byte[bufferSize];
+    }
+
+    /** Reads the stream to its end, offsets count the bytes read from the stream */
+    LineReader(InputStream stream, Charset charset) {
+        this.channel = null;
+        this.stream = stream;
+        this.charset = charset;
+        this.position = 0;
+        this.end = Long.MAX_VALUE;
+        this.buffer = new byte[64 * 1024];
+    }
+
+    /** File offset of the next unread byte, the start of the next line */
+    long offset() {
+        return position - (limit - start);
+    }
+
+    /** The next line without terminator, or null at the end of the range */
+    String readLine() throws IOException {
+        if(!nextLine()) return null;
+        return new String(buffer, lineFrom, lineTo - lineFrom, charset);
+    }
+
+    /**
+     * Like {@link #readLine()}, but a last line without terminator is only returned once the range is extended
+     * and the line is terminated. A last <code>\r</code> may still be followed by <code>\n</code> and is not
+     * a terminator yet either.
+     */
+    String readCompleteLine() throws IOException {
+        if(!next(true)) return null;
+        return new String(buffer, lineFrom, lineTo - lineFrom, charset);
+    }
+
+    /** Extends the range to <code>end</code>, e.g. after bytes were appended to the file */
+    void extend(long end) {
+        this.end = end;
+    }
+
+    /**
+     * Advances to the next line without decoding it, false at the end of the range.
+     * The line without terminator is <code>buffer()[lineFrom(), lineTo())</code> until the next call.
+     */
+    boolean nextLine() throws IOException {
+        return next(false);
+    }
+
+    private boolean next(boolean complete) throws IOException {
+        int scan = start;
+        while (true) {
+            int i = scan;
+            while (i < limit && buffer[i] != '\n' && buffer[i] != '\r') i++;
+
+            // a \r at the end of the buffer may be followed by \n
+            boolean undecided = (i < limit && buffer[i] == '\r' && i + 1 == limit && (position < end || complete));
+            if(i < limit && !undecided) {
+                lineFrom = start;
+                lineTo = i;
+                start = (buffer[i] == '\r' && i + 1 < limit && buffer[i + 1] == '\n' ? i + 2 : i + 1);
+                return true;
+            }
+
+            int scanned = i - start;
+            if(!fill()) {
+                if(complete || start == limit) return false;
+                if(undecided) {
+                    scan = start + scanned;
+                    continue;
+                }
+
+                lineFrom = start;
+                lineTo = limit;
+                start = limit;
+                return true;
+            }
+            scan = start + scanned;
+        }
+    }
+
+    byte[] buffer() { return buffer; }
+
+    int lineFrom() { return lineFrom; }
+
+    int lineTo() { return lineTo; }
+
+    /** Reads more bytes of the range, compacts or grows the buffer as needed. False at the end of the range */
+    private boolean fill() throws IOException {
+        if(position >= end) return false;
+
+        if(start > 0) {
+            System.arraycopy(buffer, start, buffer, 0, limit - start);
+            limit -= start;
+            start = 0;
+        }
+        // a line longer than the buffer
+        if(limit == buffer.length) buffer = Arrays.copyOf(buffer, buffer.length * 2);
+
+        int wanted = (int) Math.min(buffer.length - limit, end - position);
+        int read = (stream != null
+                ? stream.read(buffer, limit, wanted)
+                : channel.read(ByteBuffer.wrap(buffer, limit, wanted), position));
+        if(read < 0) {
+            // end of stream, or file shrank
+            end = position;
+            return false;
+        }
+
+        limit += read;
+        position += read;
+        return true;
+    }
+}
@@ -0,0 +1,124 @@
+package scraper.nodes.dev.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Splits files into byte regions which start and end on line boundaries,
+ * so that regions can be read independently and concurrently.
+ */
+final class LineRegions {
+
+    private LineRegions() {}
+
+    /** A byte range <code>[start, end)</code> of a file */
+    static final class Region {
+        final int index;
+        final long start;
+        final long end;
+
+        Region(int index, long start, long end) {
+            this.index = index;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    /**
+     * True if the charset encodes the line terminators <code>\n</code> and <code>\r</code> as single ASCII bytes,
+     * e.g. UTF-8 or the ISO-8859 family. Multi-byte characters of these charsets never contain these bytes.
+     */
+    static boolean isAsciiCompatible(Charset charset) {
+        return charset.canEncode() && Arrays.equals("\n\r".getBytes(charset), new byte[]{'\n', '\r'});
+    }
+
+    /**
+     * Splits the first <code>size</code> bytes of the file into at most <code>parts</code> regions of similar size.
+     * Every region but the first starts directly after a <code>\n</code>.
+     */
+    static List<Region> split(FileChannel channel, long size, int parts) throws IOException {
+        List<Region> regions = new ArrayList<>(parts);
+
+        long start = 0;
+        for (int i = 1; i <= parts && start < size; i++) {
+            long end = (i == parts ? size : nextLineStart(channel, Math.max(start + 1, size * i / parts), size));
+            regions.add(new Region(regions.size(), start, end));
+            start = end;
+        }
+
+        return regions;
+    }
+
+    /** Offset of the first line starting at or after <code>from</code>, or <code>size</code> */
+    static long nextLineStart(FileChannel channel, long from, long size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8 * 1024);
+
+        // from is a line start if the byte before it ends a line
+        long position = from - 1;
+        while (position < size) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if(read <= 0) return size;
+
+            byte[] bytes = buffer.array();
+            for (int i = 0; i < read; i++) {
+                if(bytes[i] == '\n') return Math.min(size, position + i + 1);
+            }
+            position += read;
+        }
+
+        return size;
+    }
+
+    /**
+     * Offset of the line starting <code>lines</code> lines before the line starting at <code>from</code>,
+     * or 0 if there are fewer lines. Line terminators are <code>\n</code>, <code>\r</code> and <code>\r\n</code>.
+     */
+    static long previousLineStart(FileChannel channel, long from, int lines) throws IOException {
+        BackwardBytes bytes = new BackwardBytes(channel);
+
+        long position = from;
+        for (int i = 0; i < lines && position > 0; i++) {
+            // skip the terminator of the previous line, \r\n is one terminator
+            position--;
+            if(position > 0 && bytes.at(position) == '\n' && bytes.at(position - 1) == '\r') position--;
+
+            while (position > 0 && bytes.at(position - 1) != '\n' && bytes.at(position - 1) != '\r') position--;
+        }
+
+        return position;
+    }
+
+    /** Single bytes of a file, read backwards in blocks */
+    private static final class BackwardBytes {
+        private final FileChannel channel;
+        private final ByteBuffer block = ByteBuffer.allocate(8 * 1024);
+        // block holds the bytes [blockStart, blockEnd)
+        private long blockStart = 0;
+        private long blockEnd = 0;
+
+        private BackwardBytes(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        private byte at(long position) throws IOException {
+            if(position < blockStart || position >= blockEnd) {
+                blockStart = Math.max(0, position + 1 - block.capacity());
+                blockEnd = position + 1;
+
+                block.clear();
+                block.limit((int) (blockEnd - blockStart));
+                while (block.hasRemaining()) {
+                    if(channel.read(block, blockStart + block.position()) < 0) throw new IOException("File shrank while reading");
+                }
+            }
+
+            return block.get((int) (position - blockStart));
+        }
+    }
+}
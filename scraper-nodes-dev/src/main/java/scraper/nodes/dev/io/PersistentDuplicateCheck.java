@@ -13,13 +13,30 @@ import scraper.api.template.L;
 import scraper.api.template.T;
 
 import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Checks string duplicates persistently
+ * <p>
+ * The FILE engine searches the store file on every check.
+ * The INDEX engine reads the store once into an in-memory set of line fingerprints, which is shared by all nodes
+ * using the same store, and appends new lines to the store with a batched fsync every <code>syncInterval</code>.
+ * The BLOOM engine keeps a memory-mapped Bloom filter of the store in <code>&lt;store&gt;.bloom</code>, sized on
+ * creation for <code>expectedEntries</code> with the given <code>falsePositiveRate</code>. Its memory does not grow
+ * with the store and a restart maps the filter instead of rebuilding it. To change the parameters of an existing
+ * filter, delete the filter file, it is rebuilt from the store. Duplicates are approximate unless
+ * <code>confirm</code> scans the store on positive hits.
+ * With a <code>window</code>, lines are only remembered for that many hours. The store is then kept as segments of
+ * one time bucket each next to the store file, indexed like the INDEX engine; expired segments are deleted whole.
+ * While indexed, the store must not be modified by other means.
+ * </p>
  *
  * @author Albert Schimpf
  */
-@NodePlugin("0.2.0")
+@NodePlugin("0.5.0")
 @Io
 public final class PersistentDuplicateCheck implements FunctionalNode {
 
@@ -39,6 +56,34 @@ public final class PersistentDuplicateCheck implements FunctionalNode {
     @FlowKey
     private final T<String> appendIfNotFound = new T<>(){};
 
+    /** How the store is checked. FILE, INDEX, BLOOM */
+    @FlowKey(defaultValue = "\"FILE\"")
+    private Engine engine;
+
+    /** Milliseconds between syncs of appended lines to disk with the INDEX and BLOOM engines */
+    @FlowKey(defaultValue = "1000")
+    private Integer syncInterval;
+
+    /** Rate of false duplicates of the BLOOM engine at <code>expectedEntries</code> lines */
+    @FlowKey(defaultValue = "0.01")
+    private Double falsePositiveRate;
+
+    /** Lines the BLOOM filter is sized for when it is created */
+    @FlowKey(defaultValue = "10000000")
+    private Integer expectedEntries;
+
+    /** Confirms duplicates of the BLOOM engine by scanning the store */
+    @FlowKey(defaultValue = "false")
+    private Boolean confirm;
+
+    /** Hours a line is remembered, 0 remembers lines forever. Not supported by the BLOOM engine */
+    @FlowKey(defaultValue = "0")
+    private Integer window;
+
+    /** Number of time buckets of the window. Lines are remembered up to one bucket longer than the window */
+    @FlowKey(defaultValue = "7")
+    private Integer windowSegments;
+
     @Override
     public void modify(@NotNull FunctionalNodeContainer n, @NotNull FlowMap o) throws NodeException {
         String line = o.eval(content);
@@ -46,7 +91,7 @@ public final class PersistentDuplicateCheck implements FunctionalNode {
 
             String maybeAppend = o.eval(appendIfNotFound);
             if(maybeAppend != null) {
-                boolean existedBefore = n.getJobInstance().getFileService().ifNoLineEqualsFoundAppend(persistentStore, line, () -> maybeAppend);
+                boolean existedBefore = checkOrAppend(n, line, maybeAppend);
 
                 o.output(result, existedBefore);
             }
@@ -55,4 +100,39 @@ public final class PersistentDuplicateCheck implements FunctionalNode {
             throw new NodeException(e, "Could not access IO");
         }
     }
+
+    /** True if the line existed before, otherwise appends to the store of the configured engine */
+    private boolean checkOrAppend(FunctionalNodeContainer n, String line, String maybeAppend)
+            throws IOException, NodeException {
+        Path store = Paths.get(persistentStore);
+
+        if(window > 0) {
+            if(engine == Engine.BLOOM) throw new NodeException("A window is not supported by the BLOOM engine");
+            if(windowSegments <= 0) throw new NodeException("Window segments must be positive");
+
+            long windowMillis = TimeUnit.HOURS.toMillis(window);
+            return DuplicateStore.shared(store, WindowStore.class, syncInterval,
+                    List.of(windowMillis, windowSegments), path -> WindowStore.open(path, windowMillis, windowSegments))
+                    .checkOrAppend(line, maybeAppend);
+        }
+
+        switch (engine) {
+            case INDEX:
+                return DuplicateStore.shared(store, DuplicateIndex.class, syncInterval, null, DuplicateIndex::open)
+                        .checkOrAppend(line, maybeAppend);
+            case BLOOM:
+                if(falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+                    throw new NodeException("False positive rate must be between 0 and 1");
+                }
+                if(expectedEntries <= 0) throw new NodeException("Expected entries must be positive");
+
+                return DuplicateStore.shared(store, BloomStore.class, syncInterval,
+                        List.of(expectedEntries, falsePositiveRate), path -> BloomStore.open(path, expectedEntries, falsePositiveRate))
+                        .checkOrAppend(line, maybeAppend, confirm);
+            default:
+                return n.getJobInstance().getFileService().ifNoLineEqualsFoundAppend(persistentStore, line, () -> maybeAppend);
+        }
+    }
+
+    enum Engine { FILE, INDEX, BLOOM }
 }
\ No newline at end of file
@@ -13,18 +13,51 @@ import scraper.api.template.L;
 import scraper.api.template.T;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 /**
  * Reads an input file in chunks.
- * Reads until the <var>filter</var> applies,
- * then includes that line and <var>includeAfterMatch</var> many lines
- * as one stream output String.
+ * Reads until a filter applies,
+ * then includes that line, <var>includeBeforeMatch</var> many lines before and <var>includeAfterMatch</var> many lines
+ * after it as one stream output String. Like <code>grep -B -A</code>, chunks whose lines overlap or touch are merged
+ * into one output, every line is part of at most one output.
+ * <p>
+ * A line applies if it contains <var>filter</var> or any of the literal <var>filters</var>,
+ * or if any of the <var>regexFilters</var> is found in it.
+ * Literals are matched together in one pass over the raw bytes of a line, lines are only decoded if they are part
+ * of an output or a regex has to be checked. Charsets other than UTF-8 and single-byte ASCII compatible charsets
+ * are decoded line by line.
+ * </p>
+ * <p>
+ * If <var>parallelism</var> is greater than 1, the file is split into as many regions on line boundaries,
+ * which are scanned concurrently. Outputs are the same as for a sequential scan, but streamed in no particular order.
+ * </p>
+ * <p>
+ * gzip and zlib compressed files are decompressed while reading and scanned sequentially;
+ * BGZF files are decompressed by <var>parallelism</var> threads.
+ * </p>
  */
-@NodePlugin("0.1.0")
+@NodePlugin("0.4.0")
 @Io
 public final class ReadChunkAndFilter implements StreamNode {
 
@@ -44,47 +77,350 @@ public final class ReadChunkAndFilter implements StreamNode {
     @FlowKey
     private String filter;
 
+    /** Line contains any of these filters check */
+    @FlowKey(defaultValue = "[]")
+    private final T<List<String>> filters = new T<>(){};
+
+    /** Regular expressions found in a line check */
+    @FlowKey(defaultValue = "[]")
+    private final T<List<String>> regexFilters = new T<>(){};
+
+    /** How many lines before the matching line to include */
+    @FlowKey(defaultValue = "0")
+    private Integer includeBeforeMatch;
+
     /** How many lines after the matching line to include */
-    @FlowKey
+    @FlowKey(defaultValue = "0")
     private Integer includeAfterMatch;
 
+    /** Regions of the file scanned concurrently */
+    @FlowKey(defaultValue = "1")
+    private Integer parallelism;
+
     @Override
     public void process(@NotNull StreamNodeContainer n, @NotNull FlowMap o) throws NodeException {
-        String file = o.eval(inputFile);
-
-        try(BufferedReader reader = new BufferedReader(new FileReader(file, Charset.forName(charset)))) {
-
-            int current = -1;
-            StringBuilder builder = new StringBuilder();
-
-            String line = reader.readLine();
-
-            while (line != null) {
-                if(line.contains(filter)) {
-                    // contains filter, possibly resets builder
-                    builder = new StringBuilder();
-                    current = includeAfterMatch;
-                    builder.append(line).append("\n");
-                } else if(current >= 0) {
-                    // no match, but leftover to add
-                    builder.append(line).append("\n");
-                    current--;
-
-                    // finished
-                    if(current == 0) {
-                        current--;
-
-                        FlowMap out = o.copy();
-                        out.output(output, builder.toString());
-                        n.streamFlowMap(o, out);
-                    }
-                }
+        Path file = Paths.get(o.eval(inputFile));
+        Charset cs = Charset.forName(charset);
 
-                line = reader.readLine();
+        List<String> literals = new ArrayList<>(o.eval(filters));
+        if(filter != null) literals.add(filter);
+        List<Pattern> regexes = compile(o.eval(regexFilters));
+        if(literals.isEmpty() && regexes.isEmpty()) throw new NodeException("No filter given");
 
+        // lines of other charsets are matched on their UTF-8 encoding
+        boolean raw = ByteChunker.supports(cs);
+        LineFilter lineFilter = new LineFilter(literals, regexes, raw ? cs : StandardCharsets.UTF_8);
+
+        try {
+            Compression.Format format = Compression.detect(file);
+            if(format != Compression.Format.NONE) {
+                try (InputStream in = Compression.open(file, format, parallelism)) {
+                    if(raw) scanLines(new LineReader(in, cs), new Chunk(n, o, cs, null, 0), lineFilter, Long.MAX_VALUE);
+                    else scanDecoded(n, o, new BufferedReader(new InputStreamReader(in, cs)), lineFilter);
+                }
+            } else if(!raw) {
+                try (BufferedReader reader = new BufferedReader(new FileReader(file.toFile(), cs))) {
+                    scanDecoded(n, o, reader, lineFilter);
+                }
+            } else if(parallelism > 1) {
+                scanParallel(n, o, file, lineFilter);
+            } else {
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                    long size = channel.size();
+                    scan(n, o, channel, lineFilter, 0, size, size);
+                }
             }
         } catch (IOException e) {
             throw new NodeException(e, "Failed: " + e.getMessage());
         }
     }
+
+    private static List<Pattern> compile(List<String> regexes) throws NodeException {
+        List<Pattern> patterns = new ArrayList<>(regexes.size());
+        for (String regex : regexes) {
+            try {
+                patterns.add(Pattern.compile(regex));
+            } catch (PatternSyntaxException e) {
+                throw new NodeException(e, "Invalid regex filter " + regex + ": " + e.getMessage());
+            }
+        }
+        return patterns;
+    }
+
+    private void scanParallel(StreamNodeContainer n, FlowMap o, Path file, LineFilter lineFilter)
+            throws IOException, NodeException {
+        ExecutorService scanners = Executors.newFixedThreadPool(parallelism, r -> {
+            Thread t = new Thread(r, "filter-region");
+            t.setDaemon(true);
+            return t;
+        });
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            List<Future<?>> scans = new ArrayList<>();
+            for (LineRegions.Region region : LineRegions.split(channel, size, parallelism)) {
+                scans.add(scanners.submit(() -> {
+                    scan(n, o, channel, lineFilter, region.start, region.end, size);
+                    return null;
+                }));
+            }
+
+            for (Future<?> scan : scans) scan.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new NodeException(e, "Interrupted while reading " + file);
+        } catch (ExecutionException e) {
+            throw new NodeException(e.getCause(), "Failed: " + e.getCause().getMessage());
+        } finally {
+            scanners.shutdownNow();
+        }
+    }
+
+    /**
+     * Scans the lines starting in <code>[start, end)</code> and streams the chunks whose first line is in that range.
+     * Scanning starts <var>includeAfterMatch</var> + 1 lines earlier to know whether a chunk of the previous region
+     * reaches into the range, and continues past <code>end</code> until the last chunk of the range is complete.
+     */
+    private void scan(StreamNodeContainer n, FlowMap o, FileChannel channel, LineFilter lineFilter,
+                      long start, long end, long size) throws IOException {
+        long from = LineRegions.previousLineStart(channel, start, includeAfterMatch + 1);
+        LineReader reader = new LineReader(channel, lineFilter.charset, from, size);
+        scanLines(reader, new Chunk(n, o, lineFilter.charset, channel, start), lineFilter, end);
+    }
+
+    /** Scans until the reader ends, or until no chunk starting before <code>end</code> can continue */
+    private static void scanLines(LineReader reader, Chunk chunk, LineFilter lineFilter, long end) throws IOException {
+        long lineStart = reader.offset();
+        while (reader.nextLine()) {
+            if(lineStart >= end && !chunk.mayStartBefore(end)) return;
+
+            byte[] bytes = reader.buffer();
+            int lineFrom = reader.lineFrom();
+            int lineTo = reader.lineTo();
+            boolean matched = lineFilter.matches(bytes, lineFrom, lineTo);
+
+            chunk.line(bytes, lineFrom, lineTo, lineStart, matched);
+            lineStart = reader.offset();
+        }
+
+        chunk.finish();
+    }
+
+    /** Charsets whose lines cannot be matched on raw bytes, e.g. UTF-16 */
+    private void scanDecoded(StreamNodeContainer n, FlowMap o, BufferedReader reader, LineFilter lineFilter)
+            throws IOException {
+        Chunk chunk = new Chunk(n, o, lineFilter.charset, null, 0);
+
+        // offsets of the encoded lines as if joined with \n
+        long offset = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            byte[] bytes = line.getBytes(lineFilter.charset);
+            chunk.line(bytes, 0, bytes.length, offset, lineFilter.matches(bytes, 0, bytes.length));
+            offset += bytes.length + 1;
+        }
+
+        chunk.finish();
+    }
+
+    /**
+     * Groups matching lines with <var>includeBeforeMatch</var> lines before and <var>includeAfterMatch</var> lines after
+     * them into chunks. Overlapping or adjacent context merges into one chunk.
+     * <p>
+     * Recent lines which may become context are kept in a ring of their offsets, bounded by
+     * <var>includeBeforeMatch</var>. They are read back from the file once a match includes them,
+     * or copied if there is no file to read from.
+     * </p>
+     */
+    private final class Chunk {
+        private final StreamNodeContainer n;
+        private final FlowMap o;
+        private final Charset charset;
+        // where context lines are read back from, null copies them
+        private final FileChannel channel;
+        // chunks starting before are streamed by another region
+        private final long owned;
+
+        // lines of the open chunk
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private boolean open = false;
+        private long first;
+        private int afterLeft = 0;
+
+        // lines after the last chunk line, oldest at head
+        private final long[] starts;
+        private final long[] ends;
+        private final byte[][] lines;
+        private int head = 0;
+        private int size = 0;
+        private byte[] scratch = new byte[1024];
+
+        private Chunk(StreamNodeContainer n, FlowMap o, Charset charset, FileChannel channel, long owned) {
+            this.n = n;
+            this.o = o;
+            this.charset = charset;
+            this.channel = channel;
+            this.owned = owned;
+            this.starts = new long[includeBeforeMatch];
+            this.ends = new long[includeBeforeMatch];
+            this.lines = new byte[channel == null ? includeBeforeMatch : 0][];
+        }
+
+        /** True if following lines can still add to a chunk which starts before <code>offset</code> */
+        private boolean mayStartBefore(long offset) {
+            return open || (size > 0 && starts[head] < offset);
+        }
+
+        private void line(byte[] line, int from, int to, long offset, boolean matched) throws IOException {
+            if(matched) {
+                if(!open) {
+                    open = true;
+                    first = (size > 0 ? starts[head] : offset);
+                }
+                appendContext();
+                append(line, from, to);
+                afterLeft = includeAfterMatch;
+            } else if(open && afterLeft > 0) {
+                append(line, from, to);
+                afterLeft--;
+            } else if(!remember(line, from, to, offset) && open) {
+                // the line can no longer join the chunk as context of a later match
+                emit();
+            }
+        }
+
+        private void finish() {
+            if(open) emit();
+        }
+
+        /** Adds the line to the ring, false if the ring is full and the oldest line was dropped */
+        private boolean remember(byte[] line, int from, int to, long offset) {
+            if(starts.length == 0) return false;
+
+            boolean full = (size == starts.length);
+            int slot = (head + size) % starts.length;
+            if(full) {
+                head = (head + 1) % starts.length;
+            } else {
+                size++;
+            }
+
+            starts[slot] = offset;
+            ends[slot] = offset + (to - from);
+            if(channel == null) lines[slot] = Arrays.copyOfRange(line, from, to);
+            return !full;
+        }
+
+        /** Appends and clears the remembered lines */
+        private void appendContext() throws IOException {
+            if(size == 0) return;
+
+            int last = (head + size - 1) % starts.length;
+            long spanStart = starts[head];
+            if(channel != null) read(spanStart, (int) (ends[last] - spanStart));
+
+            for (int i = 0; i < size; i++) {
+                int slot = (head + i) % starts.length;
+                if(channel == null) {
+                    append(lines[slot], 0, lines[slot].length);
+                    lines[slot] = null;
+                } else {
+                    append(scratch, (int) (starts[slot] - spanStart), (int) (ends[slot] - spanStart));
+                }
+            }
+
+            head = 0;
+            size = 0;
+        }
+
+        private void read(long position, int length) throws IOException {
+            if(scratch.length < length) scratch = new byte[Math.max(length, scratch.length * 2)];
+
+            ByteBuffer target = ByteBuffer.wrap(scratch, 0, length);
+            while (target.hasRemaining()) {
+                if(channel.read(target, position + target.position()) < 0) {
+                    throw new IOException("File shrank while reading context lines");
+                }
+            }
+        }
+
+        private void append(byte[] line, int from, int to) {
+            bytes.write(line, from, to - from);
+            bytes.write('\n');
+        }
+
+        private void emit() {
+            if(first >= owned) {
+                FlowMap out = o.copy();
+                out.output(output, new String(bytes.toByteArray(), charset));
+                n.streamFlowMap(o, out);
+            }
+
+            open = false;
+            bytes.reset();
+        }
+    }
+
+    /** Literal and regex filters of a line, shared by all scanning threads */
+    private static final class LineFilter {
+        private final ByteMatcher literals;
+        private final List<Pattern> regexes;
+        private final Charset charset;
+        // bytes are chars, regexes run on the raw line
+        private final boolean latin1;
+
+        private LineFilter(List<String> literals, List<Pattern> regexes, Charset charset) {
+            List<byte[]> patterns = new ArrayList<>(literals.size());
+            for (String literal : literals) patterns.add(literal.getBytes(charset));
+
+            this.literals = ByteMatcher.of(patterns);
+            this.regexes = regexes;
+            this.charset = charset;
+            this.latin1 = charset.equals(StandardCharsets.ISO_8859_1);
+        }
+
+        private boolean matches(byte[] line, int from, int to) {
+            if(literals.find(line, from, to)) return true;
+            if(regexes.isEmpty()) return false;
+
+            CharSequence chars = (latin1 ? new Latin1Line(line, from, to) : new String(line, from, to - from, charset));
+            for (Pattern regex : regexes) {
+                if(regex.matcher(chars).find()) return true;
+            }
+            return false;
+        }
+    }
+
+    /** ISO-8859-1 bytes viewed as characters without copying */
+    private static final class Latin1Line implements CharSequence {
+        private final byte[] bytes;
+        private final int from;
+        private final int to;
+
+        private Latin1Line(byte[] bytes, int from, int to) {
+            this.bytes = bytes;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public int length() {
+            return to - from;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (bytes[from + index] & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new Latin1Line(bytes, from + start, from + end);
+        }
+
+        @Override
+        public String toString() {
+            return new String(bytes, from, to - from, StandardCharsets.ISO_8859_1);
+        }
+    }
 }
@@ -5,26 +5,68 @@ import scraper.annotations.node.EnsureFile;
 import scraper.annotations.node.FlowKey;
 import scraper.annotations.node.Io;
 import scraper.annotations.node.NodePlugin;
+import scraper.api.exceptions.NodeException;
 import scraper.api.flow.FlowMap;
 import scraper.api.node.container.StreamNodeContainer;
 import scraper.api.node.type.StreamNode;
 import scraper.api.template.L;
 import scraper.api.template.T;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.*;
 
 /**
  * Reads an input file in chunks.
- * Splits after <var>splitAfterLines</var> many lines or after <var>splitAFterCharacters</var> characters read.
+ * Splits after <var>splitAfterLines</var> many lines or after <var>splitAfterCharacters</var> characters read.
+ * A chunk ends directly after its last line terminator, all chunks together are the complete file.
+ * <p>
+ * The file is scanned in large byte blocks and each chunk is decoded at once.
+ * If <var>range</var> is enabled, chunks are not decoded; the byte range <code>[start, end)</code> of each chunk
+ * is put to <var>rangeOutput</var> instead. Ranges require UTF-8 or a single-byte ASCII compatible charset.
+ * </p>
+ * <p>
+ * If <var>parallelism</var> is greater than 1, the file is memory-mapped and split into as many regions on line
+ * boundaries, which are chunked and streamed concurrently. Chunking restarts at every region start.
+ * If <var>ordered</var>, chunks are still decoded concurrently but streamed in file order, and every chunk carries its
+ * position in <var>sequence</var> so that downstream processing can restore the order.
+ * </p>
+ * <p>
+ * gzip and zlib compressed files are decompressed while reading and chunked sequentially; BGZF files are decompressed
+ * by <var>parallelism</var> threads. Byte ranges are not supported for compressed files.
+ * </p>
+ * <p>
+ * If a <var>checkpoint</var> file is given, the offset after the last streamed chunk and the number of streamed chunks
+ * are persisted every <var>checkpointInterval</var> milliseconds and when done. A later run continues at that offset
+ * with the next sequence number, chunking is then sequential. Delete the checkpoint file to read from the start again.
+ * </p>
  */
-@NodePlugin("0.2.0")
+@NodePlugin("0.6.0")
 @Io
 public final class ReadChunkFile implements StreamNode {
 
+    private static final int BLOCK_SIZE = 1024 * 1024;
+    // mapped bytes at once, a mapping cannot exceed 2GB
+    private static final long MAP_WINDOW = 1L << 30;
+    // chunks a region reads ahead of the ordered emitter
+    private static final int CHUNKS_AHEAD = 64;
+    // marks the end of a region
+    private static final Object END = new Object();
+
     /** Input file path */
     @FlowKey(mandatory = true) @EnsureFile
     private final T<String> inputFile = new T<>(){};
@@ -45,40 +87,251 @@ public final class ReadChunkFile implements StreamNode {
     @FlowKey(defaultValue = "100000")
     private Integer splitAfterCharacters;
 
+    /** Streams byte ranges of chunks instead of their content */
+    @FlowKey(defaultValue = "false")
+    private Boolean range;
+
+    /** Where the byte range of a chunk is put if <var>range</var> is enabled */
+    @FlowKey(defaultValue = "\"range\"")
+    private final L<List<Long>> rangeOutput = new L<>(){};
+
+    /** Regions of the file chunked concurrently */
+    @FlowKey(defaultValue = "1")
+    private Integer parallelism;
+
+    /** Streams chunks in file order and numbers them in <var>sequence</var> */
+    @FlowKey(defaultValue = "false")
+    private Boolean ordered;
+
+    /** Where the position of a chunk in file order is put if <var>ordered</var> is enabled */
+    @FlowKey(defaultValue = "\"sequence\"")
+    private final L<Long> sequence = new L<>(){};
+
+    /** Persists the offset after the last streamed chunk to this file and continues there when run again */
+    @FlowKey
+    private final T<String> checkpoint = new T<>(){};
+
+    /** Milliseconds between checkpoint writes */
+    @FlowKey(defaultValue = "1000")
+    private Integer checkpointInterval;
+
     @Override
-    public void process(@NotNull StreamNodeContainer n, @NotNull FlowMap o) {
-        String file = o.eval(inputFile);
-
-        try(BufferedReader reader = new BufferedReader(new FileReader(file, Charset.forName(charset)))) {
-            StringBuilder splitContent = new StringBuilder();
-
-            int currentLines = 1;
-            int currentChars = 1;
-
-
-            int c;
-            while ((c = reader.read()) != -1) {
-                splitContent.append(((char) c));
-                if ((currentLines > splitAfterLines) || (currentChars > splitAfterCharacters)) {
-                    FlowMap out = o.copy();
-                    out.output(output, splitContent.toString());
-                    n.streamFlowMap(o, out);
-                    splitContent = new StringBuilder();
-                    currentLines = 0;
-                    currentChars = 0;
-                }
+    public void process(@NotNull StreamNodeContainer n, @NotNull FlowMap o) throws NodeException {
+        Path file = Paths.get(o.eval(inputFile));
+        Charset cs = Charset.forName(charset);
+
+        String checkpointFile = o.eval(checkpoint);
 
-                if(c == '\r' || c == '\n') { currentLines ++; }
-                currentChars ++;
+        try {
+            Compression.Format format = Compression.detect(file);
+            if(format != Compression.Format.NONE && range) {
+                throw new NodeException("Byte ranges are not supported for compressed file " + file);
             }
 
-            if (splitContent.length() > 0) {
-                FlowMap out = o.copy();
-                out.output(output, splitContent.toString());
-                n.streamFlowMap(o, out);
+            if(checkpointFile != null) {
+                if(!ByteChunker.supports(cs)) throw new NodeException("Checkpoints are not supported for charset " + cs);
+                processCheckpointed(n, o, file, format, cs, Paths.get(checkpointFile));
+            } else if(format != Compression.Format.NONE) {
+                try (InputStream in = Compression.open(file, format, parallelism)) {
+                    if(ByteChunker.supports(cs)) processBytes(n, o, Channels.newChannel(in), cs, null);
+                    else processChars(n, o, new InputStreamReader(in, cs));
+                }
+            } else if(ByteChunker.supports(cs) && parallelism > 1) {
+                processParallel(n, o, file, cs);
+            } else if(ByteChunker.supports(cs)) {
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                    processBytes(n, o, channel, cs, null);
+                }
+            } else if(range) {
+                throw new NodeException("Byte ranges are not supported for charset " + cs);
+            } else {
+                try (Reader reader = Files.newBufferedReader(file, cs)) {
+                    processChars(n, o, reader);
+                }
             }
         } catch (IOException e) {
-            e.printStackTrace();
+            throw new NodeException(e, "Could not read " + file + ": " + e.getMessage());
         }
     }
+
+    /** Chunks sequentially from the checkpoint, which advances after every streamed chunk */
+    private void processCheckpointed(StreamNodeContainer n, FlowMap o, Path file, Compression.Format format, Charset cs,
+                                     Path checkpointFile) throws IOException {
+        boolean compressed = (format != Compression.Format.NONE);
+        long size = (compressed ? -1 : Files.size(file));
+
+        try (Checkpoint progress = Checkpoint.open(checkpointFile, file, size, checkpointInterval)) {
+            if(compressed) {
+                try (InputStream in = Compression.open(file, format, parallelism)) {
+                    progress.skip(in);
+                    processBytes(n, o, Channels.newChannel(in), cs, progress);
+                }
+            } else {
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                    channel.position(progress.offset());
+                    processBytes(n, o, channel, cs, progress);
+                }
+            }
+        }
+    }
+
+    /** Chunks the rest of the channel, from the checkpoint if there is one */
+    private void processBytes(StreamNodeContainer n, FlowMap o, ReadableByteChannel channel, Charset cs,
+                              Checkpoint progress) throws IOException {
+        long[] next = {progress == null ? 0 : progress.count()};
+        ByteChunker chunker = new ByteChunker(splitAfterLines, splitAfterCharacters, cs,
+                progress == null ? 0 : progress.offset(),
+                (bytes, from, to, start, end) -> {
+                    emit(n, o, chunk(bytes, from, to, start, end, cs), next[0]++);
+                    if(progress != null) progress.advance(end, next[0]);
+                });
+
+        ByteBuffer block = ByteBuffer.allocate(BLOCK_SIZE);
+        while (channel.read(block) != -1) {
+            block.flip();
+            chunker.feed(block);
+            block.clear();
+        }
+        chunker.finish();
+    }
+
+    private void processParallel(StreamNodeContainer n, FlowMap o, Path file, Charset cs) throws IOException, NodeException {
+        ExecutorService readers = Executors.newFixedThreadPool(parallelism, r -> {
+            Thread t = new Thread(r, "read-chunk-region");
+            t.setDaemon(true);
+            return t;
+        });
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            List<LineRegions.Region> regions = LineRegions.split(channel, channel.size(), parallelism);
+            List<BlockingQueue<Object>> queues = new ArrayList<>(regions.size());
+            List<Future<?>> reads = new ArrayList<>(regions.size());
+
+            for (LineRegions.Region region : regions) {
+                BlockingQueue<Object> queue = (ordered ? new ArrayBlockingQueue<>(CHUNKS_AHEAD) : null);
+                queues.add(queue);
+                reads.add(readers.submit(() -> {
+                    try {
+                        ByteChunker chunker = new ByteChunker(splitAfterLines, splitAfterCharacters, cs, region.start,
+                                (bytes, from, to, start, end) -> {
+                                    Object chunk = chunk(bytes, from, to, start, end, cs);
+                                    if(queue == null) emit(n, o, chunk, -1);
+                                    else enqueue(queue, chunk);
+                                });
+                        feedMapped(channel, region, chunker);
+                        chunker.finish();
+                    } finally {
+                        // also unblocks the emitter if chunking failed
+                        if(queue != null) queue.put(END);
+                    }
+                    return null;
+                }));
+            }
+
+            long next = 0;
+            for (int i = 0; i < regions.size(); i++) {
+                if(ordered) {
+                    Object chunk;
+                    while ((chunk = queues.get(i).take()) != END) emit(n, o, chunk, next++);
+                }
+                // rethrows a failure of the region
+                reads.get(i).get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new NodeException(e, "Interrupted while reading " + file);
+        } catch (ExecutionException e) {
+            throw new NodeException(e.getCause(), "Could not read " + file + ": " + e.getCause().getMessage());
+        } finally {
+            readers.shutdownNow();
+        }
+    }
+
+    /** Maps the region window by window and feeds it in blocks */
+    private static void feedMapped(FileChannel channel, LineRegions.Region region, ByteChunker chunker) throws IOException {
+        for (long position = region.start; position < region.end; position += MAP_WINDOW) {
+            int size = (int) Math.min(MAP_WINDOW, region.end - position);
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+
+            for (int offset = 0; offset < size; offset += BLOCK_SIZE) {
+                ByteBuffer block = window.duplicate();
+                block.position(offset);
+                block.limit(Math.min(size, offset + BLOCK_SIZE));
+                chunker.feed(block);
+            }
+        }
+    }
+
+    private static void enqueue(BlockingQueue<Object> queue, Object chunk) {
+        try {
+            queue.put(chunk);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Chunking cancelled");
+        }
+    }
+
+    /** Decoded String or byte range of a chunk */
+    private Object chunk(byte[] bytes, int from, int to, long start, long end, Charset cs) {
+        if(range) return List.of(start, end);
+        return new String(bytes, from, to - from, cs);
+    }
+
+    /** Streams a chunk, with its sequence number if ordered */
+    @SuppressWarnings("unchecked")
+    private void emit(StreamNodeContainer n, FlowMap o, Object chunk, long position) {
+        FlowMap out = o.copy();
+        if(range) out.output(rangeOutput, (List<Long>) chunk);
+        else out.output(output, (String) chunk);
+        if(ordered) out.output(sequence, position);
+        n.streamFlowMap(o, out);
+    }
+
+    /** Same splitting for charsets whose characters cannot be counted on bytes, e.g. UTF-16 */
+    private void processChars(StreamNodeContainer n, FlowMap o, Reader reader) throws IOException {
+        char[] block = new char[BLOCK_SIZE / 2];
+        StringBuilder chunk = new StringBuilder();
+        long next = 0;
+        int lines = 0;
+        // a \r followed by \n ends one line only
+        boolean pendingCr = false;
+
+        int read;
+        while ((read = reader.read(block)) != -1) {
+            for (int i = 0; i < read; i++) {
+                char c = block[i];
+
+                if(pendingCr) {
+                    pendingCr = false;
+                    if(c != '\n' && ++lines == splitAfterLines) {
+                        emit(n, o, chunk, next++);
+                        lines = 0;
+                    }
+                }
+
+                if(chunk.length() == splitAfterCharacters) {
+                    emit(n, o, chunk, next++);
+                    lines = 0;
+                }
+
+                chunk.append(c);
+
+                if(c == '\n' && ++lines == splitAfterLines) {
+                    emit(n, o, chunk, next++);
+                    lines = 0;
+                } else if(c == '\r') {
+                    pendingCr = true;
+                }
+            }
+        }
+
+        emit(n, o, chunk, next);
+    }
+
+    private void emit(StreamNodeContainer n, FlowMap o, StringBuilder chunk, long position) {
+        if(chunk.length() == 0) return;
+
+        emit(n, o, chunk.toString(), position);
+        chunk.setLength(0);
+    }
 }
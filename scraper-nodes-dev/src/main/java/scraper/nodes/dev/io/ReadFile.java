@@ -11,23 +11,53 @@ import scraper.api.node.type.FunctionalNode;
 import scraper.api.template.L;
 import scraper.api.template.T;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
 import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+
+import static scraper.api.node.container.NodeLogLevel.DEBUG;
 
 /**
  * Reads a file and joins every line with a separator.
  * Outputs a String.
- * Throws an exception if the file does not exist.
+ * Throws an exception if the file does not exist or is larger than <var>maxSize</var>.
+ * gzip and zlib compressed files are decompressed transparently, <var>maxSize</var> then limits the decompressed size.
+ * <p>
+ * If lines are joined with <code>\n</code> and the file has no <code>\r</code> line endings,
+ * the file is read and decoded at once. Otherwise, lines are joined in a single pass.
+ * Input which is malformed in <var>charset</var> fails the node either way.
+ * </p>
+ * <p>
+ * With <var>cache</var> enabled, contents are shared with all other caching ReadFile nodes and
+ * read again only if size or last modified time of the file changed. Each node still rejects cached contents
+ * larger than its own <var>maxSize</var>.
+ * </p>
  */
-@NodePlugin("0.4.0")
+@NodePlugin("0.7.0")
 @Io
 public final class ReadFile implements FunctionalNode {
 
+    // largest array the JVM reliably allocates
+    private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+    // line terminators of charsets which encode them as single bytes, e.g. UTF-8 and ISO-8859-1
+    private static final byte[] CRLF = {'\r', '\n'};
+
     /** Input file path */
     @FlowKey(mandatory = true)
     private final T<String> inputFile = new T<>(){};
@@ -44,16 +74,166 @@ public final class ReadFile implements FunctionalNode {
     @FlowKey(defaultValue = "\"\\n\"")
     private String join;
 
+    /** Maximum file size in bytes, unbounded if not set */
+    @FlowKey
+    private Integer maxSize;
+
+    /** Caches the content until the file changes */
+    @FlowKey(defaultValue = "false")
+    private Boolean cache;
+
+    /** Capacity of the shared content cache in bytes, the largest capacity of all nodes is used */
+    @FlowKey(defaultValue = "67108864")
+    private Integer cacheSize;
+
     public void modify(@NotNull final FunctionalNodeContainer n, @NotNull final FlowMap o) throws NodeException {
         String file = o.eval(inputFile);
 
         if(!new File(file).exists()) throw new NodeException(n.getAddress() + ": File does not exist: " + file);
 
-        try (Stream<String> stream = Files.lines(Paths.get(file), Charset.forName(charset))) {
+        Path path = Paths.get(file);
+        Charset cs = Charset.forName(charset);
+        try {
+            BasicFileAttributes attributes = FileContentCache.attributes(path);
+            FileContentCache contents = (cache ? FileContentCache.shared(cacheSize) : null);
+            if(contents != null) {
+                String cached = contents.get(path, cs, join, attributes, maxSize != null ? maxSize : Long.MAX_VALUE);
+                if(cached != null) {
+                    o.output(output, cached);
+                    return;
+                }
+            }
 
-            o.output(output,stream.collect(Collectors.joining(join)));
+            Compression.Format format = Compression.detect(path);
+            String content;
+            long read;
+            if(format == Compression.Format.NONE) {
+                read = attributes.size();
+                checkSize(n, read, file);
+
+                content = read(path, (int) read, cs, join);
+            } else {
+                byte[] bytes = readCompressed(n, path, format, file);
+                read = bytes.length;
+                content = joined(bytes, cs, join);
+            }
+
+            if(contents != null) {
+                contents.put(path, cs, join, attributes, read, content);
+                n.log(DEBUG, "Cached {} (hits: {}, misses: {})", file, contents.getHits(), contents.getMisses());
+            }
+            o.output(output, content);
         } catch (IOException e) {
             throw new NodeException(e, "File IO error");
         }
     }
+
+    private void checkSize(FunctionalNodeContainer n, long size, String file) throws NodeException {
+        if(maxSize != null && size > maxSize) {
+            throw new NodeException(n.getAddress() + ": File is larger than " + maxSize + " bytes: " + file);
+        }
+        if(size > MAX_ARRAY_SIZE) {
+            throw new NodeException(n.getAddress() + ": File is too large to be read into a String: " + file);
+        }
+    }
+
+    /** Decompresses the whole file, <var>maxSize</var> applies to the decompressed content */
+    private byte[] readCompressed(FunctionalNodeContainer n, Path path, Compression.Format format, String file)
+            throws IOException, NodeException {
+        int limit = (maxSize != null ? Math.min(maxSize, MAX_ARRAY_SIZE) : MAX_ARRAY_SIZE);
+
+        byte[] bytes;
+        try (InputStream in = Compression.open(path, format, 1)) {
+            // one byte more detects content over the limit
+            bytes = in.readNBytes(limit + 1);
+        }
+        checkSize(n, bytes.length, file);
+
+        return bytes;
+    }
+
+    /** Joined lines of an uncompressed file of <code>size</code> bytes */
+    static String read(Path path, int size, Charset cs, String join) throws IOException {
+        if("\n".equals(join)) return joined(readAllBytes(path, size), cs, join);
+        return readJoined(path, size, cs, join);
+    }
+
+    /** Joins the lines of content read into memory, newline joined content is decoded at once if possible */
+    private static String joined(byte[] bytes, Charset cs, String join) throws IOException {
+        String content = ("\n".equals(join) ? newlineJoined(bytes, cs) : null);
+        if(content == null) {
+            // a decoder of its own reports malformed input, the charset alone would replace it
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(new ByteArrayInputStream(bytes), cs.newDecoder()))) {
+                content = joined(reader, bytes.length, join);
+            }
+        }
+        return content;
+    }
+
+    /**
+     * Decodes the content once without its trailing <code>\n</code>, like joined lines.
+     * Null if the content contains <code>\r</code> and lines have to be split.
+     */
+    private static String newlineJoined(byte[] bytes, Charset cs) throws CharacterCodingException {
+        if(!Arrays.equals(CRLF, "\r\n".getBytes(cs))) {
+            // line terminators are not single bytes, e.g. UTF-16
+            String content = decode(bytes, bytes.length, cs);
+            if(content.indexOf('\r') >= 0) return null;
+            return (content.endsWith("\n") ? content.substring(0, content.length() - 1) : content);
+        }
+
+        for (byte b : bytes) {
+            if(b == '\r') return null;
+        }
+        int length = bytes.length;
+        if(length > 0 && bytes[length - 1] == '\n') length--;
+        return decode(bytes, length, cs);
+    }
+
+    /**
+     * Decodes like <code>new String</code>, which is fastest, but fails on malformed input like reading lines does.
+     * A replacement character is either part of the file or replaced malformed input, then a strict decoder decides.
+     */
+    private static String decode(byte[] bytes, int length, Charset cs) throws CharacterCodingException {
+        String content = new String(bytes, 0, length, cs);
+
+        CharsetDecoder strict = cs.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        if(content.contains(strict.replacement())) strict.decode(ByteBuffer.wrap(bytes, 0, length));
+        return content;
+    }
+
+    /** Joins all lines in one pass, the builder is sized for the file to avoid copies */
+    static String readJoined(Path path, int size, Charset cs, String join) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(path, cs)) {
+            return joined(reader, size, join);
+        }
+    }
+
+    private static String joined(BufferedReader reader, int size, String join) throws IOException {
+        StringBuilder joined = new StringBuilder(size);
+
+        String line = reader.readLine();
+        while (line != null) {
+            joined.append(line);
+            line = reader.readLine();
+            if(line != null) joined.append(join);
+        }
+
+        return joined.toString();
+    }
+
+    /** Reads exactly <code>size</code> bytes with one channel read per OS transfer */
+    private static byte[] readAllBytes(Path path, int size) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            byte[] bytes = new byte[size];
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) {
+                if(channel.read(buffer) < 0) throw new EOFException("File shrank while reading: " + path);
+            }
+            return bytes;
+        }
+    }
 }
@@ -12,19 +12,71 @@ import scraper.api.node.type.StreamNode;
 import scraper.api.template.L;
 import scraper.api.template.T;
 
+import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.*;
 import java.util.stream.Stream;
 
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+
 /**
  * Reads a file and streams each line.
+ * <p>
+ * If <var>batchSize</var> is greater than 1, lines are streamed as lists of up to <var>batchSize</var> lines
+ * to <var>lines</var> instead.
+ * </p>
+ * <p>
+ * If <var>parallelism</var> is greater than 1, the file is split into as many regions on line boundaries,
+ * which are read concurrently. If <var>ordered</var>, lines are streamed in file order, otherwise every region
+ * streams its lines as soon as they are read. Charsets with multi-byte line terminators are always read sequentially.
+ * </p>
+ * <p>
+ * gzip and zlib compressed files are decompressed while reading and their lines are read sequentially;
+ * BGZF files are decompressed by <var>parallelism</var> threads.
+ * </p>
+ * <p>
+ * If a <var>checkpoint</var> file is given, the offset after the last streamed line is persisted every
+ * <var>checkpointInterval</var> milliseconds and when done, and a later run continues at that offset.
+ * Checkpointed files are read sequentially. Delete the checkpoint file to read from the start again.
+ * </p>
+ * <p>
+ * With <var>follow</var>, the file is read like <code>tail -F</code>: after its end, only complete lines are streamed
+ * as they are appended, until no line was appended for <var>idleTimeout</var> milliseconds. Appends are noticed by
+ * directory change notifications, or by polling every <var>pollInterval</var> milliseconds. A file which shrank was
+ * truncated and is read again from its start. If the path refers to another file than the one being read,
+ * the old file was rotated: its rest is streamed and the new file is read from its start.
+ * </p>
  */
-@NodePlugin("0.1.0")
+@NodePlugin("0.5.0")
 @Io
 public final class ReadFileAsStream implements StreamNode {
 
+    // lines handed from a region reader to the ordered emitter at once
+    private static final int CHUNK_LINES = 256;
+    // chunks a region reader reads ahead of the ordered emitter
+    private static final int CHUNKS_AHEAD = 16;
+    // marks the end of a region
+    private static final List<String> END = List.of();
+
     /** Input file path */
     @FlowKey(mandatory = true) @EnsureFile
     private final T<String> inputFile = new T<>(){};
@@ -33,18 +85,427 @@ public final class ReadFileAsStream implements StreamNode {
     @FlowKey(defaultValue = "\"output\"")
     private final L<String> output = new L<>(){};
 
+    /** Where the output lines are put if lines are batched */
+    @FlowKey(defaultValue = "\"lines\"")
+    private final L<List<String>> lines = new L<>(){};
+
     /** Charset of the file */
     @FlowKey(defaultValue = "\"ISO_8859_1\"")
     private String charset;
 
+    /** Lines streamed together as one list, 1 streams single lines */
+    @FlowKey(defaultValue = "1")
+    private Integer batchSize;
+
+    /** Regions of the file read concurrently */
+    @FlowKey(defaultValue = "1")
+    private Integer parallelism;
+
+    /** Streams lines of a parallel read in file order */
+    @FlowKey(defaultValue = "true")
+    private Boolean ordered;
+
+    /** Persists the offset after the last streamed line to this file and continues there when run again */
+    @FlowKey
+    private final T<String> checkpoint = new T<>(){};
+
+    /** Milliseconds between checkpoint writes */
+    @FlowKey(defaultValue = "1000")
+    private Integer checkpointInterval;
+
+    /** Keeps the file open after its end and streams lines as they are appended */
+    @FlowKey(defaultValue = "false")
+    private Boolean follow;
+
+    /** Milliseconds between checks of a followed file if no change is notified */
+    @FlowKey(defaultValue = "1000")
+    private Integer pollInterval;
+
+    /** Stops following after this many milliseconds without new lines, 0 follows until interrupted */
+    @FlowKey(defaultValue = "0")
+    private Integer idleTimeout;
+
     @Override
     public void process(@NotNull StreamNodeContainer n, @NotNull FlowMap o) throws NodeException {
-        String file = o.eval(inputFile);
+        Path file = Paths.get(o.eval(inputFile));
+        Charset cs = Charset.forName(charset);
+
+        String checkpointFile = o.eval(checkpoint);
+
+        try {
+            Compression.Format format = Compression.detect(file);
+            if(follow) {
+                if(format != Compression.Format.NONE) throw new NodeException("Cannot follow compressed file " + file);
+                processFollow(n, o, file, cs, checkpointFile == null ? null : Paths.get(checkpointFile));
+                return;
+            }
+            if(checkpointFile != null) {
+                processCheckpointed(n, o, file, format, cs, Paths.get(checkpointFile));
+                return;
+            }
+
+            if(format == Compression.Format.NONE && parallelism > 1 && LineRegions.isAsciiCompatible(cs)) {
+                processParallel(n, o, file, cs);
+                return;
+            }
+
+            Emitter emitter = new Emitter(n, o);
+            try (Stream<String> stream = lines(file, format, cs)) {
+                stream.forEach(emitter::line);
+                emitter.flush();
+            }
+        } catch (IOException e) {
+            throw new NodeException(e, "File IO error");
+        }
+    }
+
+    /** Reads lines sequentially from the checkpoint, which advances after every streamed line or batch */
+    private void processCheckpointed(StreamNodeContainer n, FlowMap o, Path file, Compression.Format format, Charset cs,
+                                     Path checkpointFile) throws IOException, NodeException {
+        if(!LineRegions.isAsciiCompatible(cs)) throw new NodeException("Checkpoints are not supported for charset " + cs);
+
+        boolean compressed = (format != Compression.Format.NONE);
+        long size = (compressed ? -1 : Files.size(file));
+
+        try (Checkpoint progress = Checkpoint.open(checkpointFile, file, size, checkpointInterval);
+             InputStream in = (compressed ? Compression.open(file, format, parallelism) : null);
+             FileChannel channel = (compressed ? null : FileChannel.open(file, StandardOpenOption.READ))) {
+            long start = progress.offset();
+            long count = progress.count();
+
+            // offsets of a stream reader start at the checkpoint
+            long base;
+            LineReader reader;
+            if(compressed) {
+                progress.skip(in);
+                base = start;
+                reader = new LineReader(in, cs);
+            } else {
+                base = 0;
+                reader = new LineReader(channel, cs, start, size);
+            }
+
+            Emitter emitter = new Emitter(n, o);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                emitter.line(line, base + reader.offset());
+                if(emitter.streamed > 0) progress.advance(emitter.streamedEnd, count + emitter.streamed);
+            }
+            emitter.flush();
+            if(emitter.streamed > 0) progress.advance(emitter.streamedEnd, count + emitter.streamed);
+        }
+    }
+
+    /**
+     * Streams complete lines until the file is idle for <var>idleTimeout</var> milliseconds.
+     * Waits for changes of the file's directory, or polls if the file system cannot notify them.
+     */
+    private void processFollow(StreamNodeContainer n, FlowMap o, Path file, Charset cs, Path checkpointFile)
+            throws IOException, NodeException {
+        if(!LineRegions.isAsciiCompatible(cs)) throw new NodeException("Following is not supported for charset " + cs);
+
+        try (Follower follower = new Follower(n, o, file, cs, checkpointFile); WatchService watcher = watch(file)) {
+            follower.open();
+
+            long idleSince = System.currentTimeMillis();
+            while (true) {
+                boolean changed = follower.drain(false);
+                changed |= follower.update();
+                if(changed) {
+                    idleSince = System.currentTimeMillis();
+                    continue;
+                }
+
+                if(idleTimeout > 0 && System.currentTimeMillis() - idleSince >= idleTimeout) return;
+                await(watcher);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new NodeException(e, "Interrupted while following " + file);
+        }
+    }
+
+    /** Watches the directory of the file, null if the file system does not support it */
+    private static WatchService watch(Path file) {
+        Path directory = file.toAbsolutePath().getParent();
+        WatchService watcher = null;
+        try {
+            watcher = directory.getFileSystem().newWatchService();
+            directory.register(watcher, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+            return watcher;
+        } catch (IOException | UnsupportedOperationException e) {
+            try {
+                if(watcher != null) watcher.close();
+            } catch (IOException ignored) {
+                // polling instead
+            }
+            return null;
+        }
+    }
+
+    /** Waits for any change in the directory or at most one poll interval */
+    private void await(WatchService watcher) throws InterruptedException {
+        if(watcher == null) {
+            Thread.sleep(pollInterval);
+            return;
+        }
+
+        WatchKey key = watcher.poll(pollInterval, TimeUnit.MILLISECONDS);
+        if(key != null) {
+            key.pollEvents();
+            key.reset();
+        }
+    }
+
+    /** The currently followed file, reopened after truncation and rotation */
+    private final class Follower implements Closeable {
+        private final StreamNodeContainer n;
+        private final FlowMap o;
+        private final Path file;
+        private final Charset cs;
+        private final Path checkpointFile;
+
+        private FileChannel channel;
+        // identity of the open file, differs from the path's file key after rotation
+        private Object key;
+        private LineReader reader;
+        // bytes of the file known to the reader
+        private long known;
+        private Emitter emitter;
+        private Checkpoint progress;
+        private long count;
+
+        private Follower(StreamNodeContainer n, FlowMap o, Path file, Charset cs, Path checkpointFile) {
+            this.n = n;
+            this.o = o;
+            this.file = file;
+            this.cs = cs;
+            this.checkpointFile = checkpointFile;
+        }
+
+        /** Opens the file at the path, at its checkpoint if there is one */
+        private void open() throws IOException {
+            channel = FileChannel.open(file, StandardOpenOption.READ);
+            key = Files.readAttributes(file, BasicFileAttributes.class).fileKey();
+            known = channel.size();
+
+            progress = (checkpointFile == null ? null : Checkpoint.open(checkpointFile, file, known, checkpointInterval));
+            long start = (progress == null ? 0 : progress.offset());
+            count = (progress == null ? 0 : progress.count());
 
-        try (Stream<String> stream = Files.lines(Paths.get(file), Charset.forName(charset))) {
-            stream.forEach(line -> n.streamElement(o, output, line));
+            reader = new LineReader(channel, cs, start, known);
+            emitter = new Emitter(n, o);
+        }
+
+        /** Streams new complete lines, or all remaining lines if <code>all</code>. True if there were any */
+        private boolean drain(boolean all) throws IOException {
+            long before = emitter.streamed;
+
+            String line;
+            while ((line = (all ? reader.readLine() : reader.readCompleteLine())) != null) {
+                emitter.line(line, reader.offset());
+            }
+            emitter.flush();
+
+            if(progress != null && emitter.streamed > 0) progress.advance(emitter.streamedEnd, count + emitter.streamed);
+            return emitter.streamed > before;
+        }
+
+        /** Extends the reader to appended bytes, reopens a truncated or rotated file. True if the file changed */
+        private boolean update() throws IOException {
+            BasicFileAttributes attributes;
+            try {
+                attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            } catch (NoSuchFileException e) {
+                // rotated away, the new file does not exist yet
+                return false;
+            }
+
+            if(!Objects.equals(attributes.fileKey(), key)) {
+                // rotated, the old file is complete including a last line without terminator
+                reader.extend(channel.size());
+                drain(true);
+                close();
+                open();
+                return true;
+            }
+
+            if(attributes.size() < known) {
+                // truncated, a checkpoint beyond the new size is ignored
+                close();
+                open();
+                return true;
+            }
+
+            if(attributes.size() > known) {
+                known = attributes.size();
+                reader.extend(known);
+                return true;
+            }
+
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if(progress != null) progress.close();
+            } finally {
+                if(channel != null) channel.close();
+            }
+        }
+    }
+
+    /** Lines of the file, decompressed while reading */
+    private Stream<String> lines(Path file, Compression.Format format, Charset cs) throws IOException {
+        if(format == Compression.Format.NONE) return Files.lines(file, cs);
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(Compression.open(file, format, parallelism), cs));
+        return reader.lines().onClose(() -> {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    private void processParallel(StreamNodeContainer n, FlowMap o, Path file, Charset cs) throws NodeException {
+        ExecutorService readers = Executors.newFixedThreadPool(parallelism, r -> {
+            Thread t = new Thread(r, "read-file-region");
+            t.setDaemon(true);
+            return t;
+        });
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            List<LineRegions.Region> regions = LineRegions.split(channel, channel.size(), parallelism);
+
+            if(ordered) emitOrdered(n, o, channel, cs, regions, readers);
+            else emitUnordered(n, o, channel, cs, regions, readers);
         } catch (IOException e) {
             throw new NodeException(e, "File IO error");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new NodeException(e, "Interrupted while reading " + file);
+        } catch (ExecutionException e) {
+            throw new NodeException(e.getCause(), "File IO error");
+        } finally {
+            readers.shutdownNow();
+        }
+    }
+
+    /** Every region streams its own lines, batches never span regions */
+    private void emitUnordered(StreamNodeContainer n, FlowMap o, FileChannel channel, Charset cs,
+                               List<LineRegions.Region> regions, ExecutorService readers)
+            throws InterruptedException, ExecutionException {
+        List<Future<?>> reads = new ArrayList<>(regions.size());
+        for (LineRegions.Region region : regions) {
+            reads.add(readers.submit(() -> {
+                Emitter emitter = new Emitter(n, o);
+                LineReader reader = new LineReader(channel, cs, region.start, region.end);
+                String line;
+                while ((line = reader.readLine()) != null) emitter.line(line);
+                emitter.flush();
+                return null;
+            }));
+        }
+
+        for (Future<?> read : reads) read.get();
+    }
+
+    /** Regions are read ahead concurrently, the calling thread streams their lines in file order */
+    private void emitOrdered(StreamNodeContainer n, FlowMap o, FileChannel channel, Charset cs,
+                             List<LineRegions.Region> regions, ExecutorService readers)
+            throws InterruptedException, ExecutionException {
+        List<BlockingQueue<List<String>>> queues = new ArrayList<>(regions.size());
+        List<Future<?>> reads = new ArrayList<>(regions.size());
+
+        for (LineRegions.Region region : regions) {
+            BlockingQueue<List<String>> queue = new ArrayBlockingQueue<>(CHUNKS_AHEAD);
+            queues.add(queue);
+            reads.add(readers.submit(() -> {
+                try {
+                    LineReader reader = new LineReader(channel, cs, region.start, region.end);
+                    List<String> chunk = new ArrayList<>(CHUNK_LINES);
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        chunk.add(line);
+                        if(chunk.size() == CHUNK_LINES) {
+                            enqueue(queue, chunk);
+                            chunk = new ArrayList<>(CHUNK_LINES);
+                        }
+                    }
+                    if(!chunk.isEmpty()) enqueue(queue, chunk);
+                } finally {
+                    // also unblocks the emitter if reading failed, fails at once if reading was cancelled
+                    queue.put(END);
+                }
+                return null;
+            }));
+        }
+
+        Emitter emitter = new Emitter(n, o);
+        for (int i = 0; i < regions.size(); i++) {
+            List<String> chunk;
+            while ((chunk = queues.get(i).take()) != END) chunk.forEach(emitter::line);
+            // rethrows a read failure of the region
+            reads.get(i).get();
+        }
+        emitter.flush();
+    }
+
+    /** Keeps the interrupt of a cancelled read, so that the reader does not wait for the emitter to take END */
+    private static void enqueue(BlockingQueue<List<String>> queue, List<String> chunk) {
+        try {
+            queue.put(chunk);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Reading cancelled");
+        }
+    }
+
+    /** Streams single lines or batches of lines, one instance per emitting thread */
+    private final class Emitter {
+        private final StreamNodeContainer n;
+        private final FlowMap o;
+        private List<String> batch = new ArrayList<>();
+
+        // offset after the last added line and after the last streamed line, and streamed lines, for checkpoints
+        private long lineEnd = 0;
+        private long streamedEnd = 0;
+        private long streamed = 0;
+
+        private Emitter(StreamNodeContainer n, FlowMap o) {
+            this.n = n;
+            this.o = o;
+        }
+
+        private void line(String line, long end) {
+            lineEnd = end;
+            line(line);
+        }
+
+        private void line(String line) {
+            if(batchSize <= 1) {
+                n.streamElement(o, output, line);
+                streamed++;
+                streamedEnd = lineEnd;
+                return;
+            }
+
+            batch.add(line);
+            if(batch.size() >= batchSize) flush();
+        }
+
+        private void flush() {
+            if(batch.isEmpty()) return;
+
+            FlowMap out = o.copy();
+            out.output(lines, batch);
+            n.streamFlowMap(o, out);
+            streamed += batch.size();
+            streamedEnd = lineEnd;
+            batch = new ArrayList<>(batchSize);
         }
     }
 }
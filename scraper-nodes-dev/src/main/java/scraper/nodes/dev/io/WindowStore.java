@@ -0,0 +1,157 @@
+package scraper.nodes.dev.io;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A line store of {@link PersistentDuplicateCheck} which remembers lines for a time window only.
+ * <p>
+ * The store is split into time buckets of <code>window / segments</code>, each a segment file
+ * <code>&lt;store&gt;.&lt;bucket start&gt;.segment</code> indexed by a {@link DuplicateIndex}. New lines are appended
+ * to the segment of the current bucket, checks only look at segments still in the window, and segments which left
+ * the window are deleted whole. A line is therefore remembered for at least the window and at most one bucket
+ * longer, memory and disk are bounded by the lines of the window.
+ * </p>
+ */
+final class WindowStore extends DuplicateStore {
+
+    private static final String SUFFIX = ".segment";
+
+    private final Path store;
+    private final long window;
+    private final long bucket;
+
+    // segments by bucket start, guarded by the lock; checks read, rotation writes
+    private final TreeMap<Long, DuplicateIndex> segments = new TreeMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private WindowStore(Path store, long window, long bucket) {
+        this.store = store;
+        this.window = window;
+        this.bucket = bucket;
+    }
+
+    /** Opens the live segments of the store, deletes expired ones. Window in milliseconds */
+    static WindowStore open(Path store, long window, int segments) throws IOException {
+        WindowStore opened = new WindowStore(store, window, Math.max(1, window / segments));
+        long now = System.currentTimeMillis();
+
+        String prefix = store.getFileName() + ".";
+        DirectoryStream.Filter<Path> isSegment = file -> {
+            String name = file.getFileName().toString();
+            return name.startsWith(prefix) && name.endsWith(SUFFIX)
+                    && name.substring(prefix.length(), name.length() - SUFFIX.length()).matches("\\d+");
+        };
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(store.toAbsolutePath().getParent(), isSegment)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                long start = Long.parseLong(name.substring(prefix.length(), name.length() - SUFFIX.length()));
+
+                if(opened.expired(start, now)) Files.delete(file);
+                else opened.segments.put(start, DuplicateIndex.open(file));
+            }
+        } catch (IOException | RuntimeException e) {
+            opened.close();
+            throw e;
+        }
+
+        return opened;
+    }
+
+    /**
+     * True if <code>check</code> is a line of a segment in the window, otherwise appends <code>append</code> to the
+     * current segment. Checking and adding is atomic for concurrent callers.
+     */
+    boolean checkOrAppend(String check, String append) throws IOException {
+        long now = System.currentTimeMillis();
+        long start = now - now % bucket;
+
+        while (true) {
+            lock.readLock().lock();
+            try {
+                // all callers append to the newest segment, which only changes under the write lock
+                Map.Entry<Long, DuplicateIndex> current = segments.lastEntry();
+                if(current != null && current.getKey() >= start) {
+                    return checkOrAppend(current.getValue(), current.getKey(), now, check, append);
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+
+            rotate(start, now);
+        }
+    }
+
+    @Override
+    void sync() throws IOException {
+        lock.readLock().lock();
+        try {
+            for (DuplicateIndex segment : segments.values()) segment.sync();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        super.close();
+        lock.writeLock().lock();
+        try {
+            IOException failed = null;
+            for (DuplicateIndex segment : segments.values()) {
+                try {
+                    segment.close();
+                } catch (IOException e) {
+                    failed = e;
+                }
+            }
+            segments.clear();
+            if(failed != null) throw failed;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // holds the read lock until appended, so that segments are not rotated concurrently and older segments
+    // are not appended to
+    private boolean checkOrAppend(DuplicateIndex current, long start, long now, String check, String append)
+            throws IOException {
+        for (Map.Entry<Long, DuplicateIndex> segment : segments.headMap(start).entrySet()) {
+            if(expired(segment.getKey(), now)) continue;
+            if(segment.getValue().contains(check)) return true;
+        }
+
+        return current.checkOrAppend(check, append);
+    }
+
+    /** Opens the segment of the current bucket and drops expired segments */
+    private void rotate(long start, long now) throws IOException {
+        lock.writeLock().lock();
+        try {
+            if(!segments.containsKey(start)) segments.put(start, DuplicateIndex.open(segmentFile(start)));
+
+            while (!segments.isEmpty() && expired(segments.firstKey(), now)) {
+                Map.Entry<Long, DuplicateIndex> expired = segments.pollFirstEntry();
+                expired.getValue().close();
+                Files.delete(segmentFile(expired.getKey()));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private Path segmentFile(long start) {
+        return store.resolveSibling(store.getFileName() + "." + start + SUFFIX);
+    }
+
+    private boolean expired(long start, long now) {
+        return start + bucket <= now - window;
+    }
+}
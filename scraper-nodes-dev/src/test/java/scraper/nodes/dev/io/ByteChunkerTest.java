@@ -0,0 +1,153 @@
+package scraper.nodes.dev.io;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestReporter;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Splits inputs with {@link ByteChunker} fed in small blocks. The throughput comparison with the previous
+ * character by character chunking of {@link ReadChunkFile} is tagged <code>benchmark</code>, it only runs with
+ * <code>-Pbenchmark</code>.
+ */
+public class ByteChunkerTest {
+
+    private static final int BLOCK_SIZE = 1024 * 1024;
+    private static final int WARMUP = 3;
+    private static final int ROUNDS = 5;
+
+    // consumes the chunks, so that decoding is not optimized away
+    private static volatile String sink;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void chunksAreTheCompleteInputWithinTheLimits() throws Exception {
+        String input = "a\nbb\r\nccc\rdddd\n\näöüß\n" + "e".repeat(25) + "\r";
+        for (Charset cs : new Charset[]{ISO_8859_1, UTF_8}) {
+            for (int lines = 1; lines <= 4; lines++) {
+                for (int characters : new int[]{3, 10, 1000}) {
+                    // blocks of 3 bytes split \r\n and UTF-8 characters
+                    List<String> chunks = chunks(input.getBytes(cs), 3, lines, characters, cs);
+
+                    assertEquals(input, String.join("", chunks), cs + " " + lines + " lines " + characters + " chars");
+                    for (String chunk : chunks) {
+                        assertTrue(terminators(chunk) <= lines, "Too many lines in " + chunk);
+                        assertTrue(chunk.length() <= characters, "Too many characters in " + chunk);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void chunksEndAfterTheirLastLine() throws Exception {
+        assertEquals(List.of("a\r\n", "b\n", "c\r", "d"), chunks("a\r\nb\nc\rd".getBytes(UTF_8), 1, 1, 100, UTF_8));
+        assertEquals(List.of("a\nb\n", "c"), chunks("a\nb\nc".getBytes(UTF_8), 2, 2, 100, UTF_8));
+    }
+
+    @Tag("benchmark")
+    @Test
+    public void chunkingBytesIsFasterThanChunkingCharacters(TestReporter reporter) throws Exception {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; content.length() < 64 * 1024 * 1024; i++) {
+            content.append("line ").append(i).append(" of a text file with some words in it\n");
+        }
+
+        for (Charset cs : new Charset[]{ISO_8859_1, UTF_8}) {
+            Path file = Files.createTempFile(directory, "chunk", ".txt");
+            Files.write(file, content.toString().getBytes(cs));
+            long size = Files.size(file);
+
+            double before = rate(size, () -> chunkCharacters(file, cs, 100, 100_000));
+            double after = rate(size, () -> chunkBytes(file, cs, 100, 100_000));
+            reporter.publishEntry(cs.toString(), String.format("characters=%.0fMB/s bytes=%.0fMB/s", before, after));
+
+            assertTrue(after > before, String.format("Byte chunking %.0fMB/s, character chunking %.0fMB/s", after, before));
+        }
+    }
+
+    private static List<String> chunks(byte[] input, int blockSize, int lines, int characters, Charset cs)
+            throws IOException {
+        List<String> chunks = new ArrayList<>();
+        ByteChunker chunker = new ByteChunker(lines, characters, cs, 0,
+                (bytes, from, to, start, end) -> chunks.add(new String(bytes, from, to - from, cs)));
+        for (int from = 0; from < input.length; from += blockSize) {
+            chunker.feed(input, from, Math.min(input.length, from + blockSize));
+        }
+        chunker.finish();
+        return chunks;
+    }
+
+    private static int terminators(String chunk) {
+        return chunk.replace("\r\n", "\n").replaceAll("[^\r\n]", "").length();
+    }
+
+    /** Chunks the file like {@link ReadChunkFile} does, in blocks read from a channel */
+    private static void chunkBytes(Path file, Charset cs, int lines, int characters) throws IOException {
+        ByteChunker chunker = new ByteChunker(lines, characters, cs, 0,
+                (bytes, from, to, start, end) -> sink = new String(bytes, from, to - from, cs));
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer block = ByteBuffer.allocate(BLOCK_SIZE);
+            while (channel.read(block) >= 0) {
+                chunker.feed(block.flip());
+                block.clear();
+            }
+        }
+        chunker.finish();
+    }
+
+    /** The previous chunking of {@link ReadChunkFile}, one character at a time from a reader */
+    private static void chunkCharacters(Path file, Charset cs, int lines, int characters) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file, cs)) {
+            StringBuilder chunk = new StringBuilder();
+            int currentLines = 1;
+            int currentChars = 1;
+
+            int c;
+            while ((c = reader.read()) != -1) {
+                chunk.append((char) c);
+                if(currentLines > lines || currentChars > characters) {
+                    sink = chunk.toString();
+                    chunk = new StringBuilder();
+                    currentLines = 0;
+                    currentChars = 0;
+                }
+
+                if(c == '\r' || c == '\n') currentLines++;
+                currentChars++;
+            }
+            if(chunk.length() > 0) sink = chunk.toString();
+        }
+    }
+
+    /** Megabytes chunked per second */
+    private static double rate(long size, Chunking chunking) throws IOException {
+        for (int i = 0; i < WARMUP; i++) chunking.run();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) chunking.run();
+        return (double) size * ROUNDS / (1024 * 1024) * 1e9 / (System.nanoTime() - start);
+    }
+
+    private interface Chunking {
+        void run() throws IOException;
+    }
+}
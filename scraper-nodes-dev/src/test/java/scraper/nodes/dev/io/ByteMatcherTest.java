@@ -0,0 +1,149 @@
+package scraper.nodes.dev.io;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestReporter;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Compares {@link ByteMatcher} with checking every pattern with {@link String#contains}, the previous filter of
+ * {@link ReadChunkAndFilter}. The throughput comparison is tagged <code>benchmark</code>, it only runs with
+ * <code>-Pbenchmark</code>.
+ */
+public class ByteMatcherTest {
+
+    private static final int WARMUP = 3;
+    private static final int ROUNDS = 5;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void findsLinesContainingAnyPattern() {
+        Random random = new Random(42);
+        for (int round = 0; round < 200; round++) {
+            List<String> patterns = new ArrayList<>();
+            for (int i = random.nextInt(5); i > 0; i--) patterns.add(randomText(random, 1 + random.nextInt(3)));
+            ByteMatcher matcher = matcher(patterns);
+
+            for (int i = 0; i < 50; i++) {
+                String line = randomText(random, random.nextInt(20));
+                byte[] bytes = ("x" + line + "x").getBytes(UTF_8);
+                assertEquals(containsAny(line, patterns), matcher.find(bytes, 1, bytes.length - 1),
+                        "Line " + line + " with patterns " + patterns);
+            }
+        }
+    }
+
+    @Test
+    public void emptyPatternMatchesEverythingAndNoPatternNothing() {
+        assertTrue(matcher(List.of("")).find(new byte[0], 0, 0));
+        assertFalse(matcher(List.of()).find("abc".getBytes(UTF_8), 0, 3));
+        assertTrue(matcher(List.of()).isEmpty());
+    }
+
+    @Tag("benchmark")
+    @Test
+    public void matchingBytesIsFasterThanContainsLoop(TestReporter reporter) throws Exception {
+        Path file = directory.resolve("lines.txt");
+        StringBuilder content = new StringBuilder();
+        Random random = new Random(42);
+        for (int i = 0; content.length() < 32 * 1024 * 1024; i++) {
+            content.append(i).append(" GET /articles/").append(random.nextInt(100_000))
+                    .append(" 200 Mozilla/5.0 (X11; Linux x86_64) referer=https://example.org/\n");
+        }
+        Files.write(file, content.toString().getBytes(UTF_8));
+        long size = Files.size(file);
+
+        for (int count : new int[]{1, 16, 64}) {
+            List<String> patterns = new ArrayList<>();
+            for (int i = 0; i < count; i++) patterns.add("/articles/" + (1000 + 997 * i) + " ");
+            ByteMatcher matcher = matcher(patterns);
+
+            long expected = containsLoop(file, UTF_8, patterns);
+            assertEquals(expected, matchBytes(file, UTF_8, matcher));
+
+            double before = rate(size, () -> containsLoop(file, UTF_8, patterns));
+            double after = rate(size, () -> matchBytes(file, UTF_8, matcher));
+            reporter.publishEntry(count + " patterns",
+                    String.format("contains=%.0fMB/s matcher=%.0fMB/s matched lines=%d", before, after, expected));
+
+            // a single pattern is searched like contains searches, many patterns profit from the automaton
+            assertTrue(after > (count == 1 ? 0.8 * before : before),
+                    String.format("Matcher %.0fMB/s, contains %.0fMB/s", after, before));
+        }
+    }
+
+    private static ByteMatcher matcher(List<String> patterns) {
+        List<byte[]> encoded = new ArrayList<>();
+        for (String pattern : patterns) encoded.add(pattern.getBytes(UTF_8));
+        return ByteMatcher.of(encoded);
+    }
+
+    private static boolean containsAny(String line, List<String> patterns) {
+        for (String pattern : patterns) {
+            if(line.contains(pattern)) return true;
+        }
+        return false;
+    }
+
+    // few letters, so that patterns overlap and share prefixes
+    private static String randomText(Random random, int length) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < length; i++) text.append("abä".charAt(random.nextInt(3)));
+        return text.toString();
+    }
+
+    /** Matching lines like {@link ReadChunkAndFilter}, on undecoded lines */
+    private static long matchBytes(Path file, Charset cs, ByteMatcher matcher) throws IOException {
+        long matched = 0;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            LineReader reader = new LineReader(channel, cs, 0, channel.size());
+            while (reader.nextLine()) {
+                if(matcher.find(reader.buffer(), reader.lineFrom(), reader.lineTo())) matched++;
+            }
+        }
+        return matched;
+    }
+
+    /** The previous filter, every decoded line checked against every pattern */
+    private static long containsLoop(Path file, Charset cs, List<String> patterns) throws IOException {
+        long matched = 0;
+        try (BufferedReader reader = Files.newBufferedReader(file, cs)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if(containsAny(line, patterns)) matched++;
+            }
+        }
+        return matched;
+    }
+
+    /** Megabytes matched per second */
+    private static double rate(long size, Matching matching) throws IOException {
+        for (int i = 0; i < WARMUP; i++) matching.run();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) matching.run();
+        return (double) size * ROUNDS / (1024 * 1024) * 1e9 / (System.nanoTime() - start);
+    }
+
+    private interface Matching {
+        long run() throws IOException;
+    }
+}
@@ -0,0 +1,116 @@
+package scraper.nodes.dev.io;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestReporter;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Compares the joined lines of {@link ReadFile} with joining the lines of {@link Files#lines}, the previous
+ * implementation. The throughput comparison is tagged <code>benchmark</code>, it only runs with
+ * <code>-Pbenchmark</code>.
+ */
+public class ReadFileTest {
+
+    private static final int WARMUP = 5;
+    private static final int ROUNDS = 10;
+
+    // consumes the read contents, so that reading is not optimized away
+    private static volatile String sink;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void joinedLinesEqualJoinedStreamLines() throws Exception {
+        for (Charset cs : new Charset[]{ISO_8859_1, UTF_8}) {
+            for (String content : new String[]{"", "\n", "a", "a\nb", "a\nb\n", "a\r\nb\r\n", "a\rb", "\u00e4\n\u00fc\n"}) {
+                Path file = write(content, cs);
+                for (String join : new String[]{"\n", ", ", ""}) {
+                    assertEquals(lines(file, cs, join), ReadFile.read(file, (int) Files.size(file), cs, join),
+                            "Content " + content.replace("\r", "\\r").replace("\n", "\\n") + " joined with " + join);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void malformedInputFailsLikeStreamLines() throws Exception {
+        Path file = directory.resolve("malformed.txt");
+        Files.write(file, new byte[]{'a', '\n', (byte) 0xC3, '\n'});
+
+        assertThrows(UncheckedIOException.class, () -> lines(file, UTF_8, "\n"));
+        for (String join : new String[]{"\n", ", "}) {
+            assertThrows(CharacterCodingException.class, () -> ReadFile.read(file, (int) Files.size(file), UTF_8, join));
+        }
+
+        // a replacement character in the file is not malformed
+        Path replacement = write("a\n\ufffd\n", UTF_8);
+        assertEquals("a\n\ufffd", ReadFile.read(replacement, (int) Files.size(replacement), UTF_8, "\n"));
+    }
+
+    @Tag("benchmark")
+    @Test
+    public void readingIsFasterThanJoiningStreamLines(TestReporter reporter) throws Exception {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; content.length() < 32 * 1024 * 1024; i++) {
+            content.append("line ").append(i).append(" of a text file with some words in it\n");
+        }
+
+        for (Charset cs : new Charset[]{ISO_8859_1, UTF_8}) {
+            Path file = write(content.toString(), cs);
+            int size = (int) Files.size(file);
+            for (String join : new String[]{"\n", ", "}) {
+                assertEquals(lines(file, cs, join), ReadFile.read(file, size, cs, join));
+
+                double before = rate(size, () -> sink = lines(file, cs, join));
+                double after = rate(size, () -> sink = ReadFile.read(file, size, cs, join));
+                reporter.publishEntry(cs + " joined with '" + join.replace("\n", "\\n") + "'",
+                        String.format("Files.lines=%.0fMB/s ReadFile=%.0fMB/s", before, after));
+
+                assertTrue(after > ("\n".equals(join) ? before : 0.8 * before),
+                        String.format("ReadFile reads %.0fMB/s, Files.lines %.0fMB/s", after, before));
+            }
+        }
+    }
+
+    private Path write(String content, Charset cs) throws IOException {
+        Path file = Files.createTempFile(directory, "read", ".txt");
+        Files.write(file, content.getBytes(cs));
+        return file;
+    }
+
+    private static String lines(Path file, Charset cs, String join) throws IOException {
+        try (Stream<String> lines = Files.lines(file, cs)) {
+            return lines.collect(Collectors.joining(join));
+        }
+    }
+
+    /** Megabytes read per second */
+    private static double rate(int size, Read read) throws IOException {
+        for (int i = 0; i < WARMUP; i++) read.run();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) read.run();
+        return (double) size * ROUNDS / (1024 * 1024) * 1e9 / (System.nanoTime() - start);
+    }
+
+    private interface Read {
+        void run() throws IOException;
+    }
+}
@@ -0,0 +1,116 @@
+package scraper.nodes.dev.io;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Rotates a {@link WindowStore} with a window of a few hundred milliseconds, so that lines and segments expire
+ * during the test.
+ */
+public class WindowStoreTest {
+
+    private static final long WINDOW_MILLIS = 200;
+    private static final int SEGMENTS = 2;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void linesExpireWithTheirSegment() throws Exception {
+        Path store = directory.resolve("store.txt");
+        try (WindowStore window = WindowStore.open(store, WINDOW_MILLIS, SEGMENTS)) {
+            assertFalse(window.checkOrAppend("line", "line"));
+            assertTrue(window.checkOrAppend("line", "line"));
+            List<Path> written = segments();
+            assertFalse(written.isEmpty());
+
+            // a line is remembered at most one bucket longer than the window
+            Thread.sleep(WINDOW_MILLIS + 2 * WINDOW_MILLIS / SEGMENTS);
+
+            assertFalse(window.checkOrAppend("line", "line"), "Line outlived the window");
+            for (Path segment : written) assertFalse(Files.exists(segment), "Expired segment was not deleted");
+            assertEquals(1, segments().size());
+        }
+    }
+
+    @Test
+    public void reopenDropsExpiredSegments() throws Exception {
+        Path store = directory.resolve("store.txt");
+        try (WindowStore window = WindowStore.open(store, WINDOW_MILLIS, SEGMENTS)) {
+            window.checkOrAppend("line", "line");
+        }
+        try (WindowStore window = WindowStore.open(store, WINDOW_MILLIS, SEGMENTS)) {
+            assertTrue(window.checkOrAppend("line", "line"));
+        }
+
+        Thread.sleep(WINDOW_MILLIS + 2 * WINDOW_MILLIS / SEGMENTS);
+
+        try (WindowStore window = WindowStore.open(store, WINDOW_MILLIS, SEGMENTS)) {
+            assertTrue(segments().isEmpty());
+            assertFalse(window.checkOrAppend("line", "line"));
+        }
+    }
+
+    @Test
+    public void concurrentChecksAcrossBucketsReportOneNewLine() throws Exception {
+        Path store = directory.resolve("store.txt");
+        int threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try (WindowStore window = WindowStore.open(store, WINDOW_MILLIS, 20)) {
+            // buckets of 10ms, many rounds cross a bucket boundary
+            for (int round = 0; round < 200; round++) {
+                String line = "line-" + round;
+                List<Callable<Boolean>> checks = new ArrayList<>();
+                for (int i = 0; i < threads; i++) checks.add(() -> window.checkOrAppend(line, line));
+
+                int added = 0;
+                for (Future<Boolean> duplicate : executor.invokeAll(checks)) {
+                    if(!duplicate.get()) added++;
+                }
+                assertEquals(1, added, "Line " + line + " was added more than once");
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void sharedStoreRejectsOtherSettings() throws Exception {
+        Path store = directory.resolve("store.txt");
+        WindowStore shared = DuplicateStore.shared(store, WindowStore.class, 1000, List.of(WINDOW_MILLIS, SEGMENTS),
+                path -> WindowStore.open(path, WINDOW_MILLIS, SEGMENTS));
+        try {
+            assertEquals(shared, DuplicateStore.shared(store, WindowStore.class, 1000,
+                    List.of(WINDOW_MILLIS, SEGMENTS), path -> WindowStore.open(path, WINDOW_MILLIS, SEGMENTS)));
+            assertThrows(IOException.class, () -> DuplicateStore.shared(store, WindowStore.class, 1000,
+                    List.of(WINDOW_MILLIS, 7), path -> WindowStore.open(path, WINDOW_MILLIS, 7)));
+            assertThrows(IOException.class, () -> DuplicateStore.shared(store, WindowStore.class, 500,
+                    List.of(WINDOW_MILLIS, SEGMENTS), path -> WindowStore.open(path, WINDOW_MILLIS, SEGMENTS)));
+        } finally {
+            shared.close();
+        }
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(".segment")).collect(Collectors.toList());
+        }
+    }
+}
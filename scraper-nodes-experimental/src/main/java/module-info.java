@@ -6,6 +6,7 @@ open module scraper.nodes.experimental {
 
     requires java.net.http;
     requires com.fasterxml.jackson.databind;
+    requires com.fasterxml.jackson.dataformat.smile;
     requires org.eclipse.jetty.server;
     requires org.eclipse.jetty.servlet;
     requires org.eclipse.jetty.util;
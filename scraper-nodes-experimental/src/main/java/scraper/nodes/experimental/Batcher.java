@@ -0,0 +1,86 @@
+package scraper.nodes.experimental;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.function.Consumer;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Collects flow map contents until <code>batchSize</code> entries are waiting
+ * or the first entry waited <code>lingerMillis</code>, then hands the batch to the sender.
+ * Full batches are sent by the adding thread, lingering batches on the flush executor, never on the timer thread.
+ */
+final class Batcher {
+
+    private final int batchSize;
+    private final long lingerMillis;
+    private final ScheduledExecutorService timer;
+    private final Executor flusher;
+    private final Consumer<List<Entry>> sender;
+
+    // guarded by this
+    private List<Entry> current = new ArrayList<>();
+    private ScheduledFuture<?> lingering;
+
+    Batcher(int batchSize, long lingerMillis, ScheduledExecutorService timer, Executor flusher,
+            Consumer<List<Entry>> sender) {
+        this.batchSize = batchSize;
+        this.lingerMillis = lingerMillis;
+        this.timer = timer;
+        this.flusher = flusher;
+        this.sender = sender;
+    }
+
+    CompletableFuture<Map<?, ?>> add(Map<String, Object> content) {
+        Entry entry = new Entry(content);
+        List<Entry> full = null;
+
+        synchronized (this) {
+            current.add(entry);
+            if(current.size() >= batchSize) {
+                full = take();
+            } else if(current.size() == 1) {
+                // sending can wait for a free worker, which must not hold up other timers
+                lingering = timer.schedule(() -> flusher.execute(this::flushLingering), lingerMillis, MILLISECONDS);
+            }
+        }
+
+        // send outside of the lock, sending can wait for a free worker
+        if(full != null) sender.accept(full);
+        return entry.result;
+    }
+
+    private void flushLingering() {
+        List<Entry> batch;
+        synchronized (this) {
+            if(current.isEmpty()) return;
+            batch = take();
+        }
+        sender.accept(batch);
+    }
+
+    private List<Entry> take() {
+        List<Entry> batch = current;
+        current = new ArrayList<>(batchSize);
+        if(lingering != null) {
+            lingering.cancel(false);
+            lingering = null;
+        }
+        return batch;
+    }
+
+    static final class Entry {
+        final Map<String, Object> content;
+        final CompletableFuture<Map<?, ?>> result = new CompletableFuture<>();
+
+        Entry(Map<String, Object> content) {
+            this.content = content;
+        }
+    }
+}
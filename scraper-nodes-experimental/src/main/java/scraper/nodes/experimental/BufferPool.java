@@ -0,0 +1,46 @@
+package scraper.nodes.experimental;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of equally sized direct buffers for channel I/O.
+ * Buffers are allocated on demand, at most <code>maxPooled</code> released buffers are kept.
+ */
+final class BufferPool {
+
+    static final BufferPool SHARED = new BufferPool(64 * 1024, 256);
+
+    private final int bufferSize;
+    private final int maxPooled;
+    private final ConcurrentLinkedQueue<ByteBuffer> pooled = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+
+    BufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+    }
+
+    int getBufferSize() { return bufferSize; }
+
+    /** A cleared direct buffer of {@link #getBufferSize()} bytes */
+    ByteBuffer acquire() {
+        ByteBuffer buffer = pooled.poll();
+        if(buffer == null) return ByteBuffer.allocateDirect(bufferSize);
+
+        size.decrementAndGet();
+        buffer.clear();
+        return buffer;
+    }
+
+    /** Returns a buffer of this pool, other buffers are ignored */
+    void release(ByteBuffer buffer) {
+        if(!buffer.isDirect() || buffer.capacity() != bufferSize) return;
+        if(size.incrementAndGet() > maxPooled) {
+            size.decrementAndGet();
+            return;
+        }
+        pooled.offer(buffer);
+    }
+}
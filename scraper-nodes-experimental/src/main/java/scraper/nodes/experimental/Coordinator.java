@@ -0,0 +1,239 @@
+package scraper.nodes.experimental;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static scraper.nodes.experimental.DistributedServer.BATCH_ERROR;
+import static scraper.nodes.experimental.DistributedServer.BATCH_RESULT;
+import static scraper.nodes.experimental.DistributedServer.DELTA_HEADER;
+
+/**
+ * Queue of flow map contents pulled by {@link DistributedServer} workers.
+ * <p>
+ * Workers post to <code>/pull?max=k&amp;wait=ms</code> and receive up to <code>k</code> tasks, waiting up to
+ * <code>wait</code> milliseconds for the first one. Each task is leased to the worker until its results are posted to
+ * <code>/results</code>. Tasks whose lease expires are queued again at the front; the first result of a task wins.
+ * </p>
+ * <p>
+ * At most <code>capacity</code> tasks are queued or leased, further submissions wait for a free slot.
+ * </p>
+ */
+final class Coordinator {
+
+    static final String PULL_PATH = "/pull";
+    static final String RESULTS_PATH = "/results";
+    static final String TASK_ID = "id";
+    static final String TASK_CONTENT = "content";
+    static final String TASK_BUDGET = "budget";
+
+    // upper bound of a worker's long poll
+    private static final long MAX_WAIT_MILLIS = 30000;
+
+    private final int port;
+    private final WireFormat format;
+    private final boolean compress;
+    private final boolean delta;
+    private final long leaseMillis;
+
+    private final Semaphore slots;
+    private final BlockingDeque<Task> queue = new LinkedBlockingDeque<>();
+    // submitted tasks without result, by id
+    private final Map<Long, Task> open = new ConcurrentHashMap<>();
+    private final Map<Long, Task> leased = new ConcurrentHashMap<>();
+    private final AtomicLong ids = new AtomicLong();
+
+    Coordinator(int port, WireFormat format, boolean compress, boolean delta, int capacity, long leaseMillis) {
+        this.port = port;
+        this.format = format;
+        this.compress = compress;
+        this.delta = delta;
+        this.leaseMillis = leaseMillis;
+        this.slots = new Semaphore(capacity);
+    }
+
+    void start(ScheduledExecutorService timer) throws Exception {
+        Server server = new Server();
+        server.setStopAtShutdown(true);
+        server.setStopTimeout(5000);
+
+        ServerConnector http = new ServerConnector(server);
+        http.setPort(port);
+        // long polls must not be cut by the connector
+        http.setIdleTimeout(MAX_WAIT_MILLIS + 30000);
+        server.addConnector(http);
+
+        ServletContextHandler context = new ServletContextHandler();
+        context.addServlet(new ServletHolder(new TaskHandler()), "/*");
+        context.setContextPath("/");
+        server.setHandler(context);
+        server.start();
+
+        long check = Math.max(100, leaseMillis / 4);
+        timer.scheduleWithFixedDelay(this::requeueExpired, check, check, MILLISECONDS);
+    }
+
+    /**
+     * Queues the content for the next pulling worker. Waits up to <code>timeoutMillis</code> for a free slot.
+     * The returned future completes with the result content of the remote flow.
+     */
+    CompletableFuture<Map<?, ?>> submit(Map<String, Object> content, long timeoutMillis) throws InterruptedException, TimeoutException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        if(!slots.tryAcquire(timeoutMillis, MILLISECONDS)) {
+            throw new TimeoutException("Coordinator queue is full");
+        }
+
+        Task task = new Task(ids.incrementAndGet(), content, deadline);
+        open.put(task.id, task);
+        task.result.whenComplete((r, e) -> {
+            open.remove(task.id);
+            leased.remove(task.id);
+            slots.release();
+        });
+        queue.offerLast(task);
+        return task.result;
+    }
+
+    /** Leases up to <code>max</code> tasks, waiting up to <code>wait</code> milliseconds for the first one */
+    private List<Task> lease(int max, long wait) throws InterruptedException {
+        List<Task> tasks = new ArrayList<>(Math.min(max, 64));
+        long now = System.currentTimeMillis();
+        long waitUntil = now + wait;
+
+        while (tasks.size() < max) {
+            Task task = (tasks.isEmpty()
+                    ? queue.pollFirst(Math.max(0, waitUntil - System.currentTimeMillis()), MILLISECONDS)
+                    : queue.pollFirst());
+            if(task == null) break;
+
+            now = System.currentTimeMillis();
+            if(task.result.isDone()) continue;
+            if(task.deadline <= now) {
+                task.result.completeExceptionally(new TimeoutException("Deadline expired while queued"));
+                continue;
+            }
+
+            task.leasedUntil = now + leaseMillis;
+            leased.put(task.id, task);
+            tasks.add(task);
+        }
+
+        return tasks;
+    }
+
+    private void requeueExpired() {
+        long now = System.currentTimeMillis();
+        leased.values().removeIf(task -> {
+            if(task.result.isDone()) return true;
+            if(task.leasedUntil > now) return false;
+
+            queue.offerFirst(task);
+            return true;
+        });
+    }
+
+    private void complete(Map<?, ?> entry) {
+        Object id = entry.get(TASK_ID);
+        if(!(id instanceof Number)) return;
+
+        Task task = open.get(((Number) id).longValue());
+        // already completed by another lease
+        if(task == null) return;
+
+        if(entry.containsKey(BATCH_ERROR)) {
+            task.result.completeExceptionally(new IOException("Remote flow failed: " + entry.get(BATCH_ERROR)));
+        } else {
+            task.result.complete((Map<?, ?>) entry.get(BATCH_RESULT));
+        }
+    }
+
+    private static final class Task {
+        final long id;
+        final Map<String, Object> content;
+        final long deadline;
+        final CompletableFuture<Map<?, ?>> result = new CompletableFuture<>();
+        volatile long leasedUntil;
+
+        Task(long id, Map<String, Object> content, long deadline) {
+            this.id = id;
+            this.content = content;
+            this.deadline = deadline;
+        }
+    }
+
+    private final class TaskHandler extends HttpServlet {
+        @Override
+        protected void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+            if(PULL_PATH.equals(request.getPathInfo())) {
+                pull(request, response);
+            } else if(RESULTS_PATH.equals(request.getPathInfo())) {
+                results(request, response);
+            } else {
+                response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            }
+        }
+
+        private void pull(HttpServletRequest request, HttpServletResponse response) throws IOException {
+            int max;
+            long wait;
+            try {
+                max = Integer.parseInt(request.getParameter("max"));
+                wait = Math.min(MAX_WAIT_MILLIS, Long.parseLong(request.getParameter("wait")));
+            } catch (NumberFormatException e) {
+                response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Expected numeric max and wait parameters");
+                return;
+            }
+
+            List<Task> tasks;
+            try {
+                tasks = lease(max, wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                return;
+            }
+
+            long now = System.currentTimeMillis();
+            List<Map<String, Object>> entries = new ArrayList<>(tasks.size());
+            for (Task task : tasks) {
+                Map<String, Object> entry = new HashMap<>(4);
+                entry.put(TASK_ID, task.id);
+                entry.put(TASK_CONTENT, task.content);
+                entry.put(TASK_BUDGET, Math.max(1, task.deadline - now));
+                entries.add(entry);
+            }
+
+            byte[] encoded = format.encode(entries, compress);
+            response.setStatus(HttpServletResponse.SC_OK);
+            response.setContentType(format.getContentType());
+            if(compress) response.setHeader("Content-Encoding", WireFormat.DEFLATE);
+            if(delta) response.setHeader(DELTA_HEADER, "true");
+            response.setContentLength(encoded.length);
+            response.getOutputStream().write(encoded);
+        }
+
+        private void results(HttpServletRequest request, HttpServletResponse response) throws IOException {
+            WireFormat resultFormat = WireFormat.ofContentType(request.getContentType());
+            boolean compressed = WireFormat.isCompressed(request.getHeader("Content-Encoding"));
+            List<?> entries = resultFormat.decode(request.getInputStream().readAllBytes(), List.class, compressed);
+
+            for (Object entry : entries) {
+                if(entry instanceof Map) complete((Map<?, ?>) entry);
+            }
+            response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+        }
+    }
+}
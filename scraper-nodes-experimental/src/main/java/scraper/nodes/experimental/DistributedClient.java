@@ -0,0 +1,261 @@
+package scraper.nodes.experimental;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import static scraper.nodes.experimental.DistributedServer.BATCH_ERROR;
+import static scraper.nodes.experimental.DistributedServer.BATCH_RESULT;
+
+/**
+ * Sends flow map contents to a pool of {@link DistributedServer} workers over a {@link Transport}.
+ * Updates the passive health and load of a worker with the outcome of every request.
+ * Requests rejected by a worker at capacity are retried on another worker.
+ * <p>
+ * With batching enabled, contents are collected by a {@link Batcher} and sent as one request per batch.
+ * </p>
+ * <p>
+ * With hedging enabled, a request without response after the observed latency percentile is duplicated to another
+ * worker. The first successful response wins, the transport call of the other request is cancelled and its worker
+ * slot released right away.
+ * Every request carries its remaining time budget.
+ * </p>
+ */
+final class DistributedClient {
+
+    private static final int HTTP_UNAVAILABLE = HttpURLConnection.HTTP_UNAVAILABLE;
+
+    private final Transport transport;
+    private final WorkerPool pool;
+    private final WireFormat format;
+    private final boolean compress;
+    private final int timeout;
+    private final ScheduledExecutorService timer;
+
+    // null if batching is disabled
+    private Batcher batcher;
+    // null if hedging is disabled
+    private LatencyTracker latencies;
+
+    DistributedClient(Transport transport, WorkerPool pool, WireFormat format, boolean compress, int timeout,
+                      ScheduledExecutorService timer) {
+        this.transport = transport;
+        this.pool = pool;
+        this.format = format;
+        this.compress = compress;
+        this.timeout = timeout;
+        this.timer = timer;
+    }
+
+    /**
+     * Collects up to <code>batchSize</code> contents for at most <code>lingerMillis</code> into one request.
+     * Lingering batches are sent on <code>flusher</code>
+     */
+    DistributedClient withBatching(int batchSize, long lingerMillis, Executor flusher) {
+        if(batchSize > 1) batcher = new Batcher(batchSize, lingerMillis, timer, flusher, this::sendBatch);
+        return this;
+    }
+
+    /** Duplicates requests still running after the given latency percentile to a second worker */
+    DistributedClient withHedging(boolean hedge, int percentile) {
+        if(hedge) this.latencies = new LatencyTracker(percentile);
+        return this;
+    }
+
+    /**
+     * Sends the content to a worker. Blocks while every worker is at its in-flight limit.
+     * The returned future completes with the result content of the remote flow.
+     */
+    CompletableFuture<Map<?, ?>> submit(Map<String, Object> content) throws IOException, InterruptedException, TimeoutException {
+        if(batcher != null) return batcher.add(content);
+
+        byte[] payload = format.encode(content, compress);
+        return request(false, payload, Map.class).thenApply(result -> result);
+    }
+
+    /** Dispatches to a worker and, with hedging enabled, races a duplicate against a slow response */
+    private <A> CompletableFuture<A> request(boolean batch, byte[] payload, Class<A> type)
+            throws InterruptedException, TimeoutException {
+        long deadline = System.currentTimeMillis() + timeout;
+        Attempt primaryAttempt = new Attempt();
+        CompletableFuture<A> primary = dispatch(batch, payload, type, pool.getWorkers().size(), null, primaryAttempt, timeout, deadline);
+
+        long delay = (latencies == null ? -1 : latencies.estimate());
+        if(delay < 0 || pool.getWorkers().size() < 2) return primary;
+
+        CompletableFuture<A> result = new CompletableFuture<>();
+        List<Attempt> launched = new CopyOnWriteArrayList<>(List.of(primaryAttempt));
+        AtomicInteger outstanding = new AtomicInteger(1);
+        AtomicReference<Throwable> lastError = new AtomicReference<>();
+
+        BiConsumer<A, Throwable> race = (r, e) -> {
+            if(e == null) {
+                result.complete(r);
+            } else {
+                lastError.set(e);
+                if(outstanding.decrementAndGet() == 0) result.completeExceptionally(e);
+            }
+        };
+        primary.whenComplete(race);
+
+        ScheduledFuture<?> hedge = timer.schedule(() -> {
+            if(result.isDone()) return;
+            outstanding.incrementAndGet();
+            try {
+                // only hedge if another worker is free right now
+                Attempt secondaryAttempt = new Attempt();
+                launched.add(secondaryAttempt);
+                dispatch(batch, payload, type, 1, primaryAttempt.worker, secondaryAttempt, 0, deadline).whenComplete(race);
+            } catch (InterruptedException | TimeoutException e) {
+                if(outstanding.decrementAndGet() == 0) result.completeExceptionally(lastError.get() != null ? lastError.get() : e);
+            }
+        }, delay, MILLISECONDS);
+
+        // the loser's transport call is cancelled, which releases its worker slot
+        result.whenComplete((r, e) -> {
+            hedge.cancel(false);
+            launched.forEach(Attempt::cancel);
+        });
+        return result;
+    }
+
+    /** Sends to a worker, retries on another worker if it rejects the request at capacity */
+    private <A> CompletableFuture<A> dispatch(boolean batch, byte[] payload, Class<A> type, int attempts,
+                                              Worker avoid, Attempt attempt, long acquireTimeout, long deadline)
+            throws InterruptedException, TimeoutException {
+        Worker worker = pool.acquire(acquireTimeout, avoid);
+        if(deadline <= System.currentTimeMillis()) {
+            pool.release(worker);
+            throw new TimeoutException("Deadline expired before the request was sent");
+        }
+
+        return dispatchTo(worker, batch, payload, type, attempts, avoid, attempt, acquireTimeout, deadline);
+    }
+
+    private <A> CompletableFuture<A> dispatchTo(Worker worker, boolean batch, byte[] payload, Class<A> type, int attempts,
+                                                Worker avoid, Attempt attempt, long acquireTimeout, long deadline) {
+        attempt.worker = worker;
+        if(attempt.cancelled) {
+            pool.release(worker);
+            return CompletableFuture.failedFuture(new CancellationException("Request was answered by another worker"));
+        }
+
+        long budget = deadline - System.currentTimeMillis();
+        if(budget <= 0) {
+            pool.release(worker);
+            return CompletableFuture.failedFuture(new TimeoutException("Deadline expired before the request was sent"));
+        }
+
+        return send(worker, attempt, batch, payload, budget).thenCompose(r -> {
+            if(r.status == HTTP_UNAVAILABLE && attempts > 1) {
+                // runs on a client thread which may be needed to release a slot, wait for the retry slot asynchronously
+                long wait = Math.min(acquireTimeout, deadline - System.currentTimeMillis());
+                return pool.acquireAsync(Math.max(0, wait), avoid, timer).thenCompose(next ->
+                        dispatchTo(next, batch, payload, type, attempts - 1, avoid, attempt, acquireTimeout, deadline));
+            }
+            return CompletableFuture.completedFuture(decode(worker, r, type));
+        });
+    }
+
+    private void sendBatch(List<Batcher.Entry> batch) {
+        List<Map<String, Object>> contents = new ArrayList<>(batch.size());
+        batch.forEach(entry -> contents.add(entry.content));
+
+        try {
+            byte[] payload = format.encode(contents, compress);
+
+            request(true, payload, List.class)
+                    .whenComplete((results, e) -> {
+                        for (int i = 0; i < batch.size(); i++) {
+                            CompletableFuture<Map<?, ?>> result = batch.get(i).result;
+                            if(e != null) result.completeExceptionally(e);
+                            else if(i >= results.size()) result.completeExceptionally(new IOException("Batch response is missing entry " + i));
+                            else completeEntry(result, (Map<?, ?>) results.get(i));
+                        }
+                    });
+        } catch (Exception e) {
+            if(e instanceof InterruptedException) Thread.currentThread().interrupt();
+            batch.forEach(entry -> entry.result.completeExceptionally(e));
+        }
+    }
+
+    private static void completeEntry(CompletableFuture<Map<?, ?>> result, Map<?, ?> entry) {
+        if(entry.containsKey(BATCH_ERROR)) {
+            result.completeExceptionally(new IOException("Remote flow failed: " + entry.get(BATCH_ERROR)));
+        } else {
+            result.complete((Map<?, ?>) entry.get(BATCH_RESULT));
+        }
+    }
+
+    private CompletableFuture<Transport.Reply> send(Worker worker, Attempt attempt, boolean batch, byte[] payload, long budget) {
+        long start = System.currentTimeMillis();
+        CompletableFuture<Transport.Reply> reply;
+        try {
+            reply = transport.send(worker, batch, payload, budget);
+        } catch (RuntimeException e) {
+            pool.release(worker);
+            throw e;
+        }
+
+        // published before checking, so that a concurrent cancel sees the call or the call sees the cancel
+        attempt.call = reply;
+        if(attempt.cancelled) reply.cancel(true);
+
+        return reply.whenComplete((r, e) -> {
+            pool.release(worker);
+            long now = System.currentTimeMillis();
+
+            // an abandoned call says nothing about the worker
+            if(reply.isCancelled()) return;
+            if(e != null) {
+                worker.onFailure(now);
+                return;
+            }
+
+            worker.reportLoad(r.load);
+            if(r.status == HTTP_UNAVAILABLE) {
+                worker.onBusy(now + r.retryAfterMillis);
+            } else if(r.status >= 500) {
+                worker.onFailure(now);
+            } else {
+                worker.onSuccess();
+                if(latencies != null && r.status == 200) latencies.record(now - start);
+            }
+        });
+    }
+
+    /** One request across its retries, cancelling it abandons its current transport call */
+    private static final class Attempt {
+        volatile Worker worker;
+        volatile CompletableFuture<Transport.Reply> call;
+        volatile boolean cancelled;
+
+        void cancel() {
+            cancelled = true;
+            CompletableFuture<Transport.Reply> current = call;
+            if(current != null) current.cancel(true);
+        }
+    }
+
+    private <A> A decode(Worker worker, Transport.Reply reply, Class<A> type) {
+        if(reply.status != 200) {
+            throw new CompletionException(new IOException("Distributed request to " + worker + " failed with status "
+                    + reply.status + ": " + new String(reply.body, StandardCharsets.UTF_8)));
+        }
+
+        try {
+            return reply.format.decode(reply.body, type, reply.compressed);
+        } catch (IOException e) {
+            throw new CompletionException(new IOException("Could not read response of " + worker, e));
+        }
+    }
+}
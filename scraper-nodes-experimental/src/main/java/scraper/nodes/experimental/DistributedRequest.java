@@ -1,26 +1,77 @@
 package scraper.nodes.experimental;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import scraper.annotations.NotNull;
 import scraper.annotations.node.*;
 import scraper.api.exceptions.NodeException;
+import scraper.api.exceptions.ValidationException;
 import scraper.api.flow.FlowMap;
 import scraper.api.flow.impl.FlowMapImpl;
 import scraper.api.node.Address;
 import scraper.api.node.container.FunctionalNodeContainer;
+import scraper.api.node.container.NodeContainer;
 import scraper.api.node.type.FunctionalNode;
+import scraper.api.node.type.Node;
+import scraper.api.specification.ScrapeInstance;
+import scraper.api.template.T;
 import scraper.util.TemplateUtil;
 
+import java.io.IOException;
 import java.net.URI;
+import java.net.URISyntaxException;
 import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.*;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static scraper.api.node.container.NodeLogLevel.DEBUG;
+import static scraper.api.node.container.NodeLogLevel.INFO;
 
 
 /**
+ * Sends the flow map to a {@link DistributedServer} and copies the result back.
+ * <p>
+ * One HTTP client is shared by all requests of this node.
+ * Flow maps are sent as JSON or Smile, optionally deflate compressed; the server answers in the same format.
+ * </p>
+ * <p>
+ * Requests are balanced over all <var>workers</var> (and <var>host</var>, if given) with power-of-two-choices
+ * on outstanding requests. Workers failing repeatedly are ejected for a while and re-admitted afterwards.
+ * </p>
+ * <p>
+ * If <var>batchSize</var> is greater than 1, concurrent flow maps are collected for up to <var>batchLinger</var>
+ * milliseconds and sent as one request. The server executes them concurrently and answers with all results at once.
+ * </p>
+ * <p>
+ * Payloads can be reduced to the keys the distributed target reads (<var>sendKeys</var>)
+ * and to the keys it adds or changes (<var>delta</var>).
+ * </p>
+ * <p>
+ * With <var>hedge</var> enabled, a request still running after the <var>hedgePercentile</var> of observed latencies
+ * is duplicated to another worker and the first response is taken.
+ * Workers abandon requests whose <var>timeout</var> expired.
+ * </p>
+ * <p>
+ * The <var>transport</var> is either HTTP or FRAMED. FRAMED multiplexes length-prefixed binary frames over one
+ * persistent connection per worker; worker endpoints then address the <var>framedPort</var> of the servers.
+ * </p>
+ * <p>
+ * In PULL <var>mode</var> this node does not send anything. Flow maps are queued at a coordinator on
+ * <var>coordinatorPort</var> instead, and {@link DistributedServer} workers configured with this coordinator pull as
+ * many flow maps as they have free capacity. Flow maps leased to a worker which does not answer within
+ * <var>leaseTime</var> are handed to the next pulling worker.
+ * </p>
+ * <p>
+ * If <var>cacheSize</var> is greater than 0, results are cached by the hash of the sent content for
+ * <var>cacheTtl</var> milliseconds, optionally also in <var>cacheDir</var> up to <var>cacheDirSize</var> megabytes.
+ * A cached result is copied without any request.
+ * </p>
  */
-@NodePlugin(value = "0.1.0", customFlowAfter = true)
+@NodePlugin(value = "0.10.0", customFlowAfter = true)
 @Stateful
 @Io
 public final class DistributedRequest implements FunctionalNode {
@@ -28,36 +79,251 @@ public final class DistributedRequest implements FunctionalNode {
     /** Port of the server */
     @FlowKey(defaultValue = "9081") @Argument
     private Integer port;
-    @FlowKey(mandatory = true) @Argument
+    /** Host of the server, optional if <var>workers</var> are given */
+    @FlowKey @Argument
     private String host;
 
-    // mapper to generate JSON exception responses
-    private static final ObjectMapper mapper = new ObjectMapper();
+    /** PUSH sends flow maps to the workers, PULL queues flow maps for the workers to pull */
+    @FlowKey(defaultValue = "\"PUSH\"") @Argument
+    private Mode mode;
+
+    /** Port of the coordinator in PULL mode */
+    @FlowKey(defaultValue = "9082") @Argument
+    private Integer coordinatorPort;
+
+    /** Flow maps queued or leased to workers at once in PULL mode */
+    @FlowKey(defaultValue = "1024") @Argument
+    private Integer queueSize;
+
+    /** Milliseconds a pulled flow map is leased to a worker before it is queued again */
+    @FlowKey(defaultValue = "30000") @Argument
+    private Integer leaseTime;
+
+    /** Worker endpoints with format <code>host:port</code> */
+    @FlowKey(defaultValue = "[]")
+    private final T<List<String>> workers = new T<>(){};
+
+    /** Transport to the workers, HTTP or FRAMED */
+    @FlowKey(defaultValue = "\"HTTP\"") @Argument
+    private Transport.Kind transport;
+
+    /** Threads used by the HTTP client to send requests and handle responses */
+    @FlowKey(defaultValue = "4") @Argument
+    private Integer threads;
+
+    /** Maximum concurrent requests, and thereby pooled connections, per worker */
+    @FlowKey(defaultValue = "64") @Argument
+    private Integer maxConnections;
+
+    /** Consecutive failures after which a worker is ejected */
+    @FlowKey(defaultValue = "3") @Argument
+    private Integer maxFailures;
+
+    /** Initial ejection time of a failing worker in milliseconds, doubles on each ejection in a row */
+    @FlowKey(defaultValue = "10000") @Argument
+    private Integer ejectTime;
+
+    /** Timeout of a single request in milliseconds */
+    @FlowKey(defaultValue = "60000") @Argument
+    private Integer timeout;
+
+    /** Wire format of flow maps, JSON or SMILE */
+    @FlowKey(defaultValue = "\"JSON\"") @Argument
+    private WireFormat format;
+
+    /** Deflate compresses request and response bodies */
+    @FlowKey(defaultValue = "false") @Argument
+    private Boolean compress;
+
+    /** Flow maps sent together in one request, 1 disables batching */
+    @FlowKey(defaultValue = "1") @Argument
+    private Integer batchSize;
+
+    /** Maximum time in milliseconds a flow map waits for its batch to fill up */
+    @FlowKey(defaultValue = "10") @Argument
+    private Integer batchLinger;
+
+    /** Only these keys of the flow map are sent, all keys if empty */
+    @FlowKey(defaultValue = "[]")
+    private final T<List<String>> sendKeys = new T<>(){};
+
+    /** Only keys added or changed by the distributed target are sent back and copied */
+    @FlowKey(defaultValue = "false") @Argument
+    private Boolean delta;
+
+    /** Duplicates slow requests to a second worker */
+    @FlowKey(defaultValue = "false") @Argument
+    private Boolean hedge;
+
+    /** Latency percentile after which a request is hedged */
+    @FlowKey(defaultValue = "95") @Argument
+    private Integer hedgePercentile;
+
+    /** Results cached in memory, 0 disables caching */
+    @FlowKey(defaultValue = "0") @Argument
+    private Integer cacheSize;
+
+    /** Milliseconds a cached result stays valid */
+    @FlowKey(defaultValue = "3600000") @Argument
+    private Integer cacheTtl;
+
+    /** Directory to persist cached results in, memory only if not set */
+    @FlowKey @Argument
+    private String cacheDir;
+
+    /** Megabytes of cached results kept in <var>cacheDir</var>, the oldest are deleted first */
+    @FlowKey(defaultValue = "1024") @Argument
+    private Integer cacheDirSize;
 
     /** True target address */
     @FlowKey
     @Flow(dependent = true, crossed = false, label = "request")
     private Address distTarget;
 
+    // shared client, worker pool is known with the first flow map
+    private HttpClient http;
+    private ScheduledExecutorService timer;
+    private ExecutorService flusher;
+    private volatile DistributedClient client;
+    private volatile Coordinator coordinator;
+    // null if caching is disabled
+    private ResultCache cache;
+
+    enum Mode { PUSH, PULL }
+
+    @Override
+    public void init(NodeContainer<? extends Node> n, ScrapeInstance instance) throws ValidationException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "distributed-request");
+            t.setDaemon(true);
+            return t;
+        });
+
+        http = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.ALWAYS)
+                .connectTimeout(Duration.ofMillis(timeout))
+                .executor(executor)
+                .build();
+
+        timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "distributed-request-timer");
+            t.setDaemon(true);
+            return t;
+        });
+
+        // sends lingering batches, which may wait for a free worker
+        flusher = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "distributed-request-flush");
+            t.setDaemon(true);
+            return t;
+        });
+
+        if(cacheSize > 0) {
+            try {
+                cache = new ResultCache(n.getAddress() + " -> " + distTarget, cacheSize, cacheTtl,
+                        cacheDir == null ? null : Path.of(cacheDir), cacheDirSize * 1024L * 1024L);
+            } catch (IOException e) {
+                throw new ValidationException("Cache directory is not usable: " + e.getMessage());
+            }
+        }
+    }
+
     public void modify(@NotNull FunctionalNodeContainer n, @NotNull FlowMap o) throws NodeException {
+        Map<String, Object> content = project(((FlowMapImpl) o).getPrivateMap(), o.eval(sendKeys));
+
+        CompletableFuture<Map<?, ?>> future = null;
         try {
-            final @NotNull HttpClient localClient = HttpClient.newBuilder()
-                        .version(HttpClient.Version.HTTP_2)
-                        .followRedirects(HttpClient.Redirect.ALWAYS)
-                        .build();
-
-            URI uri = new URI("http://"+host+":"+port);
-            HttpRequest.Builder request = HttpRequest.newBuilder(uri);
-            String payload = mapper.writeValueAsString(((FlowMapImpl) o).getPrivateMap());
-            request.POST(HttpRequest.BodyPublishers.ofString(payload));
-
-            HttpResponse<String> response = localClient.send(request.build(), HttpResponse.BodyHandlers.ofString());
-            System.out.println(response.body());
-            Map m = mapper.readValue(response.body(), Map.class);
+            String key = null;
+            if(cache != null) {
+                key = cache.key(content, delta);
+                Map<String, Object> cached = cache.get(key);
+                if(cached != null) {
+                    n.log(DEBUG, "Result cache: {} hits, {} misses", cache.getHits(), cache.getMisses());
+                    cached.forEach((k,v) -> o.output(TemplateUtil.locationOf(k), v));
+                    return;
+                }
+            }
+
+            future = (mode == Mode.PULL
+                    ? getCoordinator(n).submit(content, timeout)
+                    : getClient(n, o).submit(content));
+            Map<?, ?> m = future.get(timeout, MILLISECONDS);
+            if(cache != null) cache.put(key, m);
             m.forEach((k,v) -> o.output(TemplateUtil.locationOf(((String) k)), v));
-        } catch (Throwable e) {
-            e.printStackTrace();
+        } catch (IOException e) {
+            throw new NodeException(e, "Could not serialize flow map");
+        } catch (InterruptedException e) {
+            if(future != null) future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new NodeException(e, "Interrupted while waiting for distributed response");
+        } catch (ExecutionException e) {
+            throw new NodeException(e.getCause(), "Distributed request failed: " + e.getCause().getMessage());
+        } catch (TimeoutException e) {
+            if(future != null) future.cancel(true);
+            throw new NodeException(e, "Distributed request timed out after " + timeout + " ms");
+        }
+    }
+
+    private static Map<String, Object> project(Map<String, Object> content, List<String> keys) {
+        if(keys.isEmpty()) return content;
+
+        Map<String, Object> projected = new HashMap<>(keys.size());
+        for (String key : keys) {
+            if(content.containsKey(key)) projected.put(key, content.get(key));
         }
+        return projected;
+    }
 
+    private Coordinator getCoordinator(FunctionalNodeContainer n) throws NodeException {
+        Coordinator current = coordinator;
+        if(current != null) return current;
+
+        synchronized (this) {
+            if(coordinator != null) return coordinator;
+
+            Coordinator started = new Coordinator(coordinatorPort, format, compress, delta, queueSize, leaseTime);
+            try {
+                started.start(timer);
+            } catch (Exception e) {
+                throw new NodeException(e, "Coordinator could not be started on port " + coordinatorPort);
+            }
+
+            n.log(INFO, "Coordinating pulling workers on port {}", coordinatorPort);
+            coordinator = started;
+            return coordinator;
+        }
+    }
+
+    private DistributedClient getClient(FunctionalNodeContainer n, FlowMap o) throws NodeException {
+        DistributedClient current = client;
+        if(current != null) return current;
+
+        synchronized (this) {
+            if(client != null) return client;
+
+            List<String> endpoints = new ArrayList<>(o.eval(workers));
+            if(host != null) endpoints.add(0, host + ":" + port);
+            if(endpoints.isEmpty()) throw new NodeException("Neither a host nor workers are defined");
+
+            List<Worker> pool = new ArrayList<>();
+            for (String endpoint : endpoints) {
+                try {
+                    pool.add(new Worker(new URI("http://" + endpoint), maxConnections, maxFailures, ejectTime));
+                } catch (URISyntaxException e) {
+                    throw new NodeException(e, "Not a valid worker address: " + endpoint);
+                }
+            }
+
+            Transport wire = (transport == Transport.Kind.FRAMED
+                    ? new FramedTransport(format, compress, delta, timeout)
+                    : new HttpTransport(http, format, compress, delta));
+
+            n.log(INFO, "Distributing requests over {} to {} workers: {}", transport, pool.size(), endpoints);
+            client = new DistributedClient(wire, new WorkerPool(pool), format, compress, timeout, timer)
+                    .withBatching(batchSize, batchLinger, flusher)
+                    .withHedging(hedge, hedgePercentile);
+            return client;
+        }
     }
 }
@@ -3,6 +3,7 @@ package scraper.nodes.experimental;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import org.apache.http.HttpStatus;
+import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.ServerConnector;
 import org.eclipse.jetty.servlet.ServletContextHandler;
@@ -15,24 +16,76 @@ import scraper.api.flow.impl.FlowMapImpl;
 import scraper.api.node.Address;
 import scraper.api.node.container.FunctionalNodeContainer;
 import scraper.api.node.container.NodeContainer;
+import scraper.api.node.container.NodeLogLevel;
 import scraper.api.node.type.FunctionalNode;
 import scraper.api.node.type.Node;
+import scraper.api.template.T;
 
+import javax.servlet.AsyncContext;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static scraper.api.node.container.NodeLogLevel.DEBUG;
 import static scraper.api.node.container.NodeLogLevel.ERROR;
+import static scraper.api.node.container.NodeLogLevel.INFO;
+import static scraper.api.node.container.NodeLogLevel.WARN;
 
 
 /**
+ * Executes flow maps received from {@link DistributedRequest} nodes at the distributed target.
+ * Request bodies are read as JSON or Smile depending on their content type.
+ * Batches posted to <code>/batch</code> are executed concurrently and answered in one response.
+ * Requests with the delta header are answered with the added or changed keys only.
+ * <p>
+ * Requests are handled asynchronously. At most <var>maxPending</var> flow maps are admitted at once, a batch counts
+ * with each of its entries. Further requests are answered with 503 and a <code>Retry-After</code> hint, batches which
+ * could never be admitted with 413.
+ * Every response reports the current load as <code>pending/maxPending</code> in the load header.
+ * </p>
+ * <p>
+ * If a request carries a deadline header (remaining milliseconds), it is answered with 504 once the deadline
+ * expires. The deadline counts from the arrival of the request and is checked again right before a flow map is
+ * dispatched to the target, expired flow maps are dropped there. A running flow cannot be stopped and stays admitted
+ * until it finishes.
+ * </p>
+ * <p>
+ * If <var>framedPort</var> is set, the same requests are also accepted as binary frames over persistent connections,
+ * see {@link Frame}. Both transports share admission and load.
+ * </p>
+ * <p>
+ * Additionally, the server pulls flow maps from all <var>coordinators</var> of {@link DistributedRequest} nodes in
+ * PULL mode. Each pull asks for at most its coordinator's share of the free admission slots and reserves these slots
+ * while waiting; a quarter of <var>maxPending</var> is left to pushed requests. Results are posted back as soon as each
+ * flow map completes.
+ * </p>
+ * <p>
+ * If <var>cacheSize</var> is greater than 0, results of the distributed target are cached by the hash of the
+ * received content, see {@link DistributedRequest}. A cached result is answered without executing the target.
+ * </p>
  */
-@NodePlugin(value = "0.1.0", customFlowAfter = true)
+@NodePlugin(value = "0.9.0", customFlowAfter = true)
 @Stateful
 @Io
 public final class DistributedServer implements FunctionalNode {
@@ -40,21 +93,110 @@ public final class DistributedServer implements FunctionalNode {
     /** Port of the server */
     @FlowKey(defaultValue = "8091") @Argument
     private Integer port;
+
+    /** Port of the framed transport, disabled if not set */
+    @FlowKey @Argument
+    private Integer framedPort;
+
+    /** Coordinator endpoints with format <code>host:port</code> to pull flow maps from */
+    @FlowKey(defaultValue = "[]")
+    private final T<List<String>> coordinators = new T<>(){};
+
+    /** Maximum admitted flow maps, executing or waiting for execution */
+    @FlowKey(defaultValue = "256") @Argument
+    private Integer maxPending;
+
+    /** Seconds a rejected client is asked to wait before retrying */
+    @FlowKey(defaultValue = "1") @Argument
+    private Integer retryAfter;
+
+    // long poll of a pull, and pause while no admission slot is free
+    private static final long PULL_WAIT_MILLIS = 10000;
+    private static final long PULL_BACKOFF_MILLIS = 10;
+
     // mapper to generate JSON exception responses
     private static final ObjectMapper mapper = new ObjectMapper();
 
+    // batches of flow maps are posted to this path, each entry is answered with a result or an error
+    static final String BATCH_PATH = "/batch";
+    static final String BATCH_RESULT = "result";
+    static final String BATCH_ERROR = "error";
+    // if set to true, only keys added or changed by the distributed target are answered
+    static final String DELTA_HEADER = "X-Scraper-Delta";
+    // current load of the worker, pending/maxPending
+    static final String LOAD_HEADER = "X-Scraper-Load";
+    // remaining time budget of a request in milliseconds, relative to avoid clock skew between machines
+    static final String DEADLINE_HEADER = "X-Scraper-Deadline";
+
+    /** Results cached in memory, 0 disables caching */
+    @FlowKey(defaultValue = "0") @Argument
+    private Integer cacheSize;
+
+    /** Milliseconds a cached result stays valid */
+    @FlowKey(defaultValue = "3600000") @Argument
+    private Integer cacheTtl;
+
+    /** Directory to persist cached results in, memory only if not set */
+    @FlowKey @Argument
+    private String cacheDir;
+
+    /** Megabytes of cached results kept in <var>cacheDir</var>, the oldest are deleted first */
+    @FlowKey(defaultValue = "1024") @Argument
+    private Integer cacheDirSize;
+
     /** True target address */
     @FlowKey
     @Flow(dependent = true, crossed = false, label = "request")
     private Address distTarget;
 
     private final AtomicBoolean started = new AtomicBoolean(false);
+    // null if caching is disabled
+    private ResultCache cache;
 
     public void modify(@NotNull FunctionalNodeContainer n, @NotNull FlowMap o) throws NodeException {
-        if(!started.getAndSet(true)) startServer(n, port);
+        if(!started.getAndSet(true)) {
+            if(cacheSize > 0) {
+                try {
+                    cache = new ResultCache(n.getAddress() + " -> " + distTarget, cacheSize, cacheTtl,
+                            cacheDir == null ? null : Path.of(cacheDir), cacheDirSize * 1024L * 1024L);
+                } catch (IOException e) {
+                    throw new NodeException(e, "Cache directory is not usable: " + cacheDir);
+                }
+            }
+
+            SocketHandler handler = startServer(n, port);
+            for (String coordinator : o.eval(coordinators)) startPulling(n, handler, coordinator);
+        }
+    }
+
+    private SocketHandler startServer(NodeContainer<? extends Node> n, Integer port) throws NodeException {
+        SocketHandler handler = new SocketHandler(
+                content -> n.forkDepend(FlowMapImpl.origin(content), distTarget),
+                n::log, maxPending, retryAfter, cache);
+
+        try {
+            serve(port, handler);
+        } catch (Exception e) {
+            n.log(ERROR,"Jetty server failed: {}", e.getMessage());
+            throw new NodeException(e, "Fix server implementation");
+        }
+
+        if(framedPort != null) {
+            FrameServer frames = new FrameServer(framedPort, handler::handleFrame,
+                    e -> n.log(ERROR, "Framed server failed: {}", e.getMessage()));
+            try {
+                frames.start();
+            } catch (IOException e) {
+                n.log(ERROR,"Framed server failed: {}", e.getMessage());
+                throw new NodeException(e, "Framed port " + framedPort + " not available");
+            }
+        }
+
+        return handler;
     }
 
-    private void startServer(NodeContainer<? extends Node> n, Integer port) throws NodeException {
+    /** Starts a Jetty server with the handler, port 0 binds an ephemeral port */
+    static Server serve(int port, SocketHandler handler) throws Exception {
         Server server = new Server();
         server.setStopAtShutdown(true);
         server.setStopTimeout(5000);
@@ -67,19 +209,31 @@ public final class DistributedServer implements FunctionalNode {
         server.addConnector(http);
 
         ServletContextHandler context = new ServletContextHandler(ServletContextHandler.SESSIONS);
-        context.addServlet(new ServletHolder(new SocketHandler(n, this)),"/*");
+        ServletHolder holder = new ServletHolder(handler);
+        holder.setAsyncSupported(true);
+        context.addServlet(holder,"/*");
 
         context.setContextPath("/");
         server.setHandler(context);
+        server.start();
+        return server;
+    }
+
+    private void startPulling(NodeContainer<? extends Node> n, SocketHandler handler, String coordinator) throws NodeException {
+        URI uri;
         try {
-            server.start();
-        } catch (Exception e) {
-            n.log(ERROR,"Jetty server failed: {}", e.getMessage());
-            throw new NodeException(e, "Fix server implementation");
+            uri = new URI("http://" + coordinator);
+        } catch (URISyntaxException e) {
+            throw new NodeException(e, "Not a valid coordinator address: " + coordinator);
         }
+
+        Thread puller = new Thread(() -> handler.pull(uri), "distributed-pull-" + coordinator);
+        puller.setDaemon(true);
+        puller.start();
+        n.log(INFO, "Pulling flow maps from {}", coordinator);
     }
 
-    private static void wrapException(HttpServletResponse response, Exception e, String message, int status, String... args) throws IOException {
+    private static void wrapException(HttpServletResponse response, Throwable e, String message, int status, String... args) throws IOException {
         ObjectNode node = mapper.createObjectNode();
 
         if(e != null) {
@@ -95,33 +249,391 @@ public final class DistributedServer implements FunctionalNode {
         response.getWriter().println(node.toString());
     }
 
+    private static Throwable unwrap(Throwable e) {
+        return (e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+    }
+
+    private static Map<String, Object> batchEntry(Map<String, Object> result, Throwable e) {
+        if(e != null) return Map.of(BATCH_ERROR, String.valueOf(unwrap(e)));
+        return Map.of(BATCH_RESULT, result);
+    }
+
+    /** Executes the distributed target with a copy of the received content */
+    interface Target {
+        CompletableFuture<FlowMap> execute(Map<String, Object> content);
+    }
+
+    /** Log sink of the handler, usually the node container */
+    interface Log {
+        void log(NodeLogLevel level, String format, Object... args);
+    }
+
     static class SocketHandler extends HttpServlet {
-        private final NodeContainer<? extends Node> nodeC;
-        private final DistributedServer node;
+        private final Target target;
+        private final Log logger;
+        private final int maxPending;
+        private final int retryAfter;
+        // null if caching is disabled
+        private final ResultCache cache;
+
+        // admitted requests, executing or waiting for execution
+        private final AtomicInteger pending = new AtomicInteger();
+        // coordinators being pulled from, sharing the slots for pulled flow maps
+        private final AtomicInteger pullers = new AtomicInteger();
 
-        SocketHandler(NodeContainer<? extends Node> container, DistributedServer node) {
-            this.nodeC = container;
-            this.node = node;
+        SocketHandler(Target target, Log log, int maxPending, int retryAfter, ResultCache cache) {
+            this.target = target;
+            this.logger = log;
+            this.maxPending = maxPending;
+            this.retryAfter = retryAfter;
+            this.cache = cache;
         }
 
         @Override
         protected void doPost(HttpServletRequest request, HttpServletResponse response)
                 throws IOException {
+            // the budget counts from the arrival of the request, which may have waited for a container thread
+            long waited = Math.max(0, System.currentTimeMillis() - Request.getBaseRequest(request).getTimeStamp());
+            long received = System.nanoTime() - MILLISECONDS.toNanos(waited);
+            long budget = budget(request);
+            if(remaining(budget, received) == 0) {
+                response.setHeader(LOAD_HEADER, load());
+                wrapException(response, null, "Deadline expired before execution", HttpStatus.SC_GATEWAY_TIMEOUT);
+                return;
+            }
+
+            // answer in the requested format, or in the format of the request
+            WireFormat format = WireFormat.ofContentType(request.getContentType());
+            boolean compressed = WireFormat.isCompressed(request.getHeader("Content-Encoding"));
+            WireFormat responseFormat = (request.getHeader("Accept") != null
+                    ? WireFormat.ofContentType(request.getHeader("Accept"))
+                    : format);
+            boolean delta = Boolean.parseBoolean(request.getHeader(DELTA_HEADER));
+
+            boolean isBatch = BATCH_PATH.equals(request.getPathInfo());
+            List<Map<String, Object>> batch = null;
+            Map<String, Object> single = null;
             try {
-                String body = request.getReader().lines().collect(Collectors.joining(System.lineSeparator()));
-                Map m = mapper.readValue(body, Map.class);
-                FlowMap i = FlowMapImpl.origin(m);
-
-                CompletableFuture<FlowMap> futureFlow = nodeC.forkDepend(i, node.distTarget);
-                FlowMap result = futureFlow.get();
-                response.setStatus(HttpServletResponse.SC_OK);
-//                args.eval(responseHeaders).forEach(response::setHeader);
-//                response.setContentType(args.eval(contentType));
-                response.getWriter().print(mapper.writeValueAsString(((FlowMapImpl) result).getPrivateMap()));
+                byte[] body = request.getInputStream().readAllBytes();
+                if(isBatch) batch = format.decode(body, List.class, compressed);
+                else single = format.decode(body, Map.class, compressed);
             } catch (Exception e) {
+                respondFailure(response, e);
+                return;
+            }
+
+            int entries = (isBatch ? batch.size() : 1);
+            if(entries > maxPending) {
+                response.setHeader(LOAD_HEADER, load());
+                wrapException(response, null, "Batch of %s flow maps exceeds the capacity of %s",
+                        HttpStatus.SC_REQUEST_TOO_LONG, String.valueOf(entries), String.valueOf(maxPending));
+                return;
+            }
+            if(!admit(entries)) {
+                response.setHeader("Retry-After", String.valueOf(retryAfter));
+                response.setHeader(LOAD_HEADER, load());
+                wrapException(response, null, "Worker is at capacity, retry later", HttpStatus.SC_SERVICE_UNAVAILABLE);
+                return;
+            }
+
+            AsyncContext async = request.startAsync();
+            // execution time is bounded by the flow, not by the container
+            async.setTimeout(0);
+
+            // every flow releases its admission when it finishes
+            CompletableFuture<?> result = (isBatch
+                    ? executeBatch(batch, delta, budget, received)
+                    : execute(single, delta, budget, received));
+
+            result.whenComplete((r, e) -> {
+                try {
+                    if(e != null) {
+                        respondFailure(response, unwrap(e));
+                    } else {
+                        byte[] encoded = responseFormat.encode(r, compressed);
+                        response.setStatus(HttpServletResponse.SC_OK);
+                        response.setHeader(LOAD_HEADER, load());
+                        response.setContentType(responseFormat.getContentType());
+                        if(compressed) response.setHeader("Content-Encoding", WireFormat.DEFLATE);
+                        response.setContentLength(encoded.length);
+                        response.getOutputStream().write(encoded);
+                    }
+                } catch (IOException ex) {
+                    logger.log(WARN, "Could not send response: {}", ex.getMessage());
+                } finally {
+                    async.complete();
+                }
+            });
+        }
+
+        /** Framed counterpart of {@link #doPost}, failures are answered with an error frame */
+        CompletableFuture<Frame> handleFrame(Frame request, long received) {
+            // a budget of 0 is expired, -1 means no deadline
+            long budget = Math.max(-1, request.a);
+            if(remaining(budget, received) == 0) return CompletableFuture.completedFuture(reply(request, Frame.EXPIRED, new byte[0]));
+
+            WireFormat format = ((request.code & Frame.SMILE) != 0 ? WireFormat.SMILE : WireFormat.JSON);
+            boolean compressed = (request.code & Frame.COMPRESSED) != 0;
+            boolean delta = (request.code & Frame.DELTA) != 0;
+
+            boolean isBatch = (request.code & Frame.BATCH) != 0;
+            List<Map<String, Object>> batch = null;
+            Map<String, Object> single = null;
+            try {
+                if(isBatch) batch = format.decode(request.payload, List.class, compressed);
+                else single = format.decode(request.payload, Map.class, compressed);
+            } catch (Exception e) {
+                return CompletableFuture.completedFuture(reply(request, Frame.ERROR, String.valueOf(e).getBytes(UTF_8)));
+            }
+
+            int entries = (isBatch ? batch.size() : 1);
+            if(entries > maxPending) {
+                String message = "Batch of " + entries + " flow maps exceeds the capacity of " + maxPending;
+                return CompletableFuture.completedFuture(reply(request, Frame.ERROR, message.getBytes(UTF_8)));
+            }
+            if(!admit(entries)) {
+                // the retry hint in seconds, like the Retry-After header
+                byte[] hint = String.valueOf(retryAfter).getBytes(UTF_8);
+                return CompletableFuture.completedFuture(reply(request, Frame.BUSY, hint));
+            }
+
+            // every flow releases its admission when it finishes
+            CompletableFuture<?> result = (isBatch
+                    ? executeBatch(batch, delta, budget, received)
+                    : execute(single, delta, budget, received));
+
+            return result
+                    .handle((r, e) -> {
+                        if(e == null) {
+                            try {
+                                return reply(request, Frame.OK, format.encode(r, compressed));
+                            } catch (IOException ex) {
+                                e = ex;
+                            }
+                        }
+
+                        Throwable cause = unwrap(e);
+                        byte status = (isExpired(cause) ? Frame.EXPIRED : Frame.ERROR);
+                        return reply(request, status, String.valueOf(cause).getBytes(UTF_8));
+                    });
+        }
+
+        /** Admits all <code>entries</code> flow maps if they fit, or none */
+        private boolean admit(int entries) {
+            while (true) {
+                int current = pending.get();
+                if(current + entries > maxPending) return false;
+                if(pending.compareAndSet(current, current + entries)) return true;
+            }
+        }
+
+        /** Pulls flow maps from the coordinator as long as the server runs, posts every result as soon as it completes */
+        private void pull(URI coordinator) {
+            HttpClient http = HttpClient.newHttpClient();
+            URI results = coordinator.resolve(Coordinator.RESULTS_PATH);
+
+            pullers.incrementAndGet();
+            try {
+                pullLoop(http, coordinator, results);
+            } finally {
+                pullers.decrementAndGet();
+            }
+        }
+
+        private void pullLoop(HttpClient http, URI coordinator, URI results) {
+            while (!Thread.currentThread().isInterrupted()) {
+                int reserved = reserveShare();
+                try {
+                    if(reserved == 0) {
+                        Thread.sleep(PULL_BACKOFF_MILLIS);
+                        continue;
+                    }
+
+                    URI pull = coordinator.resolve(Coordinator.PULL_PATH + "?max=" + reserved + "&wait=" + PULL_WAIT_MILLIS);
+                    HttpResponse<byte[]> response = http.send(
+                            HttpRequest.newBuilder(pull).POST(HttpRequest.BodyPublishers.noBody()).build(),
+                            HttpResponse.BodyHandlers.ofByteArray());
+                    if(response.statusCode() != HttpServletResponse.SC_OK) {
+                        throw new IOException("Coordinator answered with status " + response.statusCode());
+                    }
+
+                    WireFormat format = WireFormat.ofContentType(response.headers().firstValue("Content-Type").orElse(null));
+                    boolean compressed = WireFormat.isCompressed(response.headers().firstValue("Content-Encoding").orElse(null));
+                    boolean delta = Boolean.parseBoolean(response.headers().firstValue(DELTA_HEADER).orElse(null));
+                    List<?> tasks = format.decode(response.body(), List.class, compressed);
+
+                    // keep one slot per received task, each is released when its result is posted
+                    pending.addAndGet(tasks.size() - reserved);
+                    reserved = 0;
+
+                    for (Object task : tasks) {
+                        executePulled(http, results, (Map<?, ?>) task, format, compressed, delta);
+                    }
+                } catch (InterruptedException e) {
+                    pending.addAndGet(-reserved);
+                    return;
+                } catch (Exception e) {
+                    pending.addAndGet(-reserved);
+                    logger.log(WARN, "Could not pull from {}: {}", coordinator, e.getMessage());
+                    try {
+                        Thread.sleep(retryAfter * 1000L);
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Reserves free admission slots for one pull, at most an equal share of the pullable slots per coordinator.
+         * A quarter of the slots is left to pushed requests, which would be rejected while a pull holds them.
+         * Returns the number of reserved slots
+         */
+        private int reserveShare() {
+            int pullable = maxPending - maxPending / 4;
+            int share = Math.max(1, pullable / Math.max(1, pullers.get()));
+            while (true) {
+                int current = pending.get();
+                int free = Math.min(share, pullable - current);
+                if(free <= 0) return 0;
+                if(pending.compareAndSet(current, current + free)) return free;
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private void executePulled(HttpClient http, URI results, Map<?, ?> task,
+                                   WireFormat format, boolean compressed, boolean delta) {
+            Object id = task.get(Coordinator.TASK_ID);
+            long budget = ((Number) task.get(Coordinator.TASK_BUDGET)).longValue();
+
+            CompletableFuture<Map<String, Object>> result =
+                    execute((Map<String, Object>) task.get(Coordinator.TASK_CONTENT), delta, budget, System.nanoTime());
+
+            result.whenComplete((r, e) -> {
+                Map<String, Object> entry = new HashMap<>(batchEntry(r, e));
+                entry.put(Coordinator.TASK_ID, id);
+                try {
+                    HttpRequest.Builder post = HttpRequest.newBuilder(results)
+                            .header("Content-Type", format.getContentType())
+                            .POST(HttpRequest.BodyPublishers.ofByteArray(format.encode(List.of(entry), compressed)));
+                    if(compressed) post.header("Content-Encoding", WireFormat.DEFLATE);
+
+                    // a lost result is recovered by the expiring lease
+                    http.sendAsync(post.build(), HttpResponse.BodyHandlers.discarding())
+                            .whenComplete((response, ex) -> {
+                                if(ex != null) logger.log(WARN, "Could not post result to {}: {}", results, ex.getMessage());
+                            });
+                } catch (IOException ex) {
+                    logger.log(WARN, "Could not encode result: {}", ex.getMessage());
+                }
+            });
+        }
+
+        private Frame reply(Frame request, byte status, byte[] payload) {
+            return new Frame(request.id, status, pending.get(), maxPending, payload);
+        }
+
+        private void respondFailure(HttpServletResponse response, Throwable e) throws IOException {
+            response.setHeader(LOAD_HEADER, load());
+            if(isExpired(e)) {
+                wrapException(response, e, "Deadline expired, work abandoned", HttpStatus.SC_GATEWAY_TIMEOUT);
+            } else {
                 wrapException(response, e, "Request failed on server side! %s", HttpStatus.SC_INTERNAL_SERVER_ERROR, e.getMessage());
             }
         }
 
+        /** Remaining budget in milliseconds, 0 if expired, -1 if the request has no deadline */
+        private static long budget(HttpServletRequest request) {
+            String deadline = request.getHeader(DEADLINE_HEADER);
+            if(deadline == null) return -1;
+            try {
+                return Math.max(0, Long.parseLong(deadline));
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+
+        private String load() {
+            return pending.get() + "/" + maxPending;
+        }
+
+        /** Milliseconds left of a budget counted from <code>received</code> (nano time), 0 if expired, -1 if none */
+        private static long remaining(long budget, long received) {
+            if(budget < 0) return -1;
+            return Math.max(0, budget - NANOSECONDS.toMillis(System.nanoTime() - received));
+        }
+
+        /**
+         * Executes admitted content and releases its admission once the flow finished, which may be after the
+         * returned future failed with a {@link TimeoutException} at the deadline. Content whose deadline expired
+         * before it is dispatched to the target is dropped and released right away
+         */
+        private CompletableFuture<Map<String, Object>> execute(Map<String, Object> content, boolean delta,
+                                                               long budget, long received) {
+            long remaining = remaining(budget, received);
+            if(remaining == 0) {
+                pending.decrementAndGet();
+                return CompletableFuture.failedFuture(new TimeoutException("Deadline expired before execution"));
+            }
+
+            String key;
+            CompletableFuture<FlowMap> fork;
+            try {
+                key = (cache == null ? null : cache.key(content, delta));
+                Map<String, Object> cached = (key == null ? null : cache.get(key));
+                if(cached != null) {
+                    pending.decrementAndGet();
+                    logger.log(DEBUG, "Result cache: {} hits, {} misses", cache.getHits(), cache.getMisses());
+                    return CompletableFuture.completedFuture(cached);
+                }
+
+                fork = target.execute(new HashMap<>(content));
+            } catch (Exception e) {
+                pending.decrementAndGet();
+                return CompletableFuture.failedFuture(e);
+            }
+
+            fork.whenComplete((r, e) -> pending.decrementAndGet());
+
+            // the deadline only applies to the answer, a late result is discarded
+            CompletableFuture<FlowMap> answer = (remaining > 0 ? fork.copy().orTimeout(remaining, MILLISECONDS) : fork);
+            return answer
+                    .thenApply(result -> {
+                        Map<String, Object> resultContent = ((FlowMapImpl) result).getPrivateMap();
+                        Map<String, Object> answered = delta ? changedKeys(content, resultContent) : resultContent;
+                        if(key != null) cache.put(key, answered);
+                        return answered;
+                    });
+        }
+
+        private static boolean isExpired(Throwable e) {
+            return e instanceof TimeoutException || e instanceof CancellationException;
+        }
+
+        private static Map<String, Object> changedKeys(Map<String, Object> before, Map<String, Object> after) {
+            Map<String, Object> changed = new HashMap<>();
+            after.forEach((k, v) -> {
+                if(!before.containsKey(k) || !Objects.equals(before.get(k), v)) changed.put(k, v);
+            });
+            return changed;
+        }
+
+        /** Executes all flow maps of a batch concurrently, failures are reported per entry */
+        private CompletableFuture<List<Map<String, Object>>> executeBatch(List<Map<String, Object>> batch, boolean delta,
+                                                                         long budget, long received) {
+            List<CompletableFuture<Map<String, Object>>> entries = new ArrayList<>(batch.size());
+            for (Map<String, Object> content : batch) {
+                entries.add(execute(content, delta, budget, received).handle(DistributedServer::batchEntry));
+            }
+
+            // entries never complete exceptionally
+            return CompletableFuture.allOf(entries.toArray(new CompletableFuture[0]))
+                    .thenApply(done -> {
+                        List<Map<String, Object>> results = new ArrayList<>(entries.size());
+                        entries.forEach(entry -> results.add(entry.join()));
+                        return results;
+                    });
+        }
+
     }
 }
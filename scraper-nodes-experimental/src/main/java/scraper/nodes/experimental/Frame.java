@@ -0,0 +1,120 @@
+package scraper.nodes.experimental;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.function.Consumer;
+
+/**
+ * Length-prefixed binary frame of the framed transport.
+ * <pre>
+ * int length | long id | byte code | int a | int b | payload
+ * </pre>
+ * <code>length</code> counts all bytes after itself. Requests carry flags as code and the time budget as
+ * <code>a</code>; replies carry a status as code and the worker load as <code>a/b</code>. Busy replies carry the
+ * seconds to wait before the next request as decimal text payload, errors carry their message.
+ * Replies reuse the id of their request, so replies on one connection may arrive in any order.
+ */
+final class Frame {
+
+    static final int HEADER = 8 + 1 + 4 + 4;
+    static final int MAX_LENGTH = 256 * 1024 * 1024;
+
+    // request flags
+    static final byte BATCH = 1;
+    static final byte DELTA = 2;
+    static final byte COMPRESSED = 4;
+    static final byte SMILE = 8;
+
+    // reply status
+    static final byte OK = 0;
+    static final byte ERROR = 1;
+    static final byte BUSY = 2;
+    static final byte EXPIRED = 3;
+
+    final long id;
+    final byte code;
+    final int a;
+    final int b;
+    final byte[] payload;
+
+    Frame(long id, byte code, int a, int b, byte[] payload) {
+        this.id = id;
+        this.code = code;
+        this.a = a;
+        this.b = b;
+        this.payload = payload;
+    }
+
+    /** Encoded frame ready to be written, in a pooled direct buffer if it fits */
+    ByteBuffer encode(BufferPool pool) {
+        int size = 4 + HEADER + payload.length;
+        ByteBuffer buffer = (size <= pool.getBufferSize() ? pool.acquire() : ByteBuffer.allocate(size));
+
+        buffer.putInt(HEADER + payload.length)
+                .putLong(id)
+                .put(code)
+                .putInt(a)
+                .putInt(b)
+                .put(payload);
+        return buffer.flip();
+    }
+
+    /**
+     * Incremental frame decoder for one connection.
+     * Small frames are decoded from the read buffer, larger frames are collected into an exactly sized buffer.
+     */
+    static final class Reader {
+        // frame larger than the read buffer, being collected
+        private ByteBuffer large;
+
+        /** Decodes all complete frames of a flipped read buffer and compacts it for the next read */
+        void read(ByteBuffer in, Consumer<Frame> frames) throws IOException {
+            while (true) {
+                if(large != null) {
+                    transfer(in, large);
+                    if(large.hasRemaining()) break;
+
+                    large.flip();
+                    frames.accept(decode(large, large.remaining()));
+                    large = null;
+                    continue;
+                }
+
+                if(in.remaining() < 4) break;
+
+                int length = in.getInt(in.position());
+                if(length < HEADER || length > MAX_LENGTH) throw new IOException("Corrupt frame length " + length);
+
+                if(in.remaining() >= 4 + length) {
+                    in.getInt();
+                    frames.accept(decode(in, length));
+                } else if(4 + length > in.capacity()) {
+                    in.getInt();
+                    large = ByteBuffer.allocate(length);
+                } else {
+                    break;
+                }
+            }
+
+            in.compact();
+        }
+
+        private static Frame decode(ByteBuffer in, int length) {
+            long id = in.getLong();
+            byte code = in.get();
+            int a = in.getInt();
+            int b = in.getInt();
+            byte[] payload = new byte[length - HEADER];
+            in.get(payload);
+            return new Frame(id, code, a, b, payload);
+        }
+
+        private static void transfer(ByteBuffer from, ByteBuffer to) {
+            int n = Math.min(from.remaining(), to.remaining());
+            ByteBuffer slice = from.duplicate();
+            slice.limit(slice.position() + n);
+            to.put(slice);
+            from.position(from.position() + n);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package scraper.nodes.experimental;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Persistent client connection of the framed transport.
+ * Requests of many callers are multiplexed over one socket, a reader thread completes them by frame id.
+ * If the connection fails, all outstanding requests fail and the connection is unusable.
+ */
+final class FrameConnection {
+
+    private final SocketChannel channel;
+    private final BufferPool pool = BufferPool.SHARED;
+    private final AtomicLong ids = new AtomicLong();
+    private final Map<Long, CompletableFuture<Frame>> outstanding = new ConcurrentHashMap<>();
+    private final Object writeLock = new Object();
+
+    private volatile boolean closed;
+
+    FrameConnection(InetSocketAddress address, int connectTimeout) throws IOException {
+        channel = SocketChannel.open();
+        try {
+            channel.socket().setTcpNoDelay(true);
+            channel.socket().connect(address, connectTimeout);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+
+        Thread reader = new Thread(this::readLoop, "frame-connection-" + address);
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    boolean isOpen() { return !closed; }
+
+    /**
+     * Sends a request frame, the future completes with the reply frame of the same id.
+     * Fails with a {@link java.util.concurrent.TimeoutException} if there is no reply within a positive budget
+     */
+    CompletableFuture<Frame> send(byte flags, int budget, byte[] payload) {
+        long id = ids.incrementAndGet();
+        CompletableFuture<Frame> reply = new CompletableFuture<>();
+        outstanding.put(id, reply);
+        // a hanging worker must not keep the caller waiting
+        if(budget > 0) reply.orTimeout(budget, MILLISECONDS);
+        // cancelled or timed out callers do not leak their entry
+        reply.whenComplete((r, e) -> outstanding.remove(id));
+
+        if(closed) {
+            reply.completeExceptionally(new IOException("Connection closed"));
+            return reply;
+        }
+
+        ByteBuffer buffer = new Frame(id, flags, budget, 0, payload).encode(pool);
+        try {
+            synchronized (writeLock) {
+                while (buffer.hasRemaining()) channel.write(buffer);
+            }
+        } catch (IOException e) {
+            fail(e);
+        } finally {
+            pool.release(buffer);
+        }
+
+        return reply;
+    }
+
+    void close() {
+        fail(new IOException("Connection closed"));
+    }
+
+    private void readLoop() {
+        ByteBuffer in = pool.acquire();
+        Frame.Reader reader = new Frame.Reader();
+        try {
+            while (!closed) {
+                if(channel.read(in) < 0) throw new IOException("Connection closed by worker");
+
+                in.flip();
+                reader.read(in, frame -> {
+                    CompletableFuture<Frame> reply = outstanding.remove(frame.id);
+                    if(reply != null) reply.complete(frame);
+                });
+            }
+        } catch (IOException e) {
+            fail(e);
+        } finally {
+            pool.release(in);
+        }
+    }
+
+    private void fail(IOException e) {
+        closed = true;
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+            // failing anyway
+        }
+
+        outstanding.values().forEach(reply -> reply.completeExceptionally(e));
+        outstanding.clear();
+    }
+}
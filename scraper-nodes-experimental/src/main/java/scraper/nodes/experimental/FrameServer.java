@@ -0,0 +1,214 @@
+package scraper.nodes.experimental;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Non-blocking server side of the framed transport.
+ * A single selector thread accepts connections, reads request frames and writes reply frames.
+ * Requests are handled on a pool of handler threads, as decoding large payloads would stall every connection of the
+ * selector. Replies are queued per connection and written once the handler completes, in completion order.
+ */
+final class FrameServer {
+
+    /**
+     * Handles one request frame, the reply frame must carry the request id. <code>received</code> is the
+     * {@link System#nanoTime()} the frame was read at, before it waited for a handler thread
+     */
+    interface Handler {
+        CompletableFuture<Frame> handle(Frame request, long received);
+    }
+
+    private final int port;
+    private final Handler handler;
+    private final Consumer<Throwable> onError;
+    private final BufferPool pool = BufferPool.SHARED;
+
+    // connections with queued replies, flushed by the selector thread
+    private final Queue<Connection> flush = new ConcurrentLinkedQueue<>();
+
+    private Selector selector;
+    private ServerSocketChannel server;
+    private ExecutorService handlers;
+
+    FrameServer(int port, Handler handler, Consumer<Throwable> onError) {
+        this.port = port;
+        this.handler = handler;
+        this.onError = onError;
+    }
+
+    void start() throws IOException {
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(port));
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+
+        handlers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+            Thread t = new Thread(r, "frame-server-handler-" + port);
+            t.setDaemon(true);
+            return t;
+        });
+
+        Thread loop = new Thread(this::run, "frame-server-" + port);
+        loop.setDaemon(true);
+        loop.start();
+    }
+
+    void stop() throws IOException {
+        selector.close();
+        server.close();
+        handlers.shutdownNow();
+    }
+
+    /** Bound port, useful when started on port 0 */
+    int getPort() {
+        return server.socket().getLocalPort();
+    }
+
+    private void run() {
+        try {
+            while (selector.isOpen()) {
+                selector.select();
+
+                Connection queued;
+                while ((queued = flush.poll()) != null) queued.enableWrite();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    try {
+                        if(!key.isValid()) continue;
+                        if(key.isAcceptable()) accept();
+                        else {
+                            Connection connection = (Connection) key.attachment();
+                            if(key.isReadable()) connection.read();
+                            if(key.isValid() && key.isWritable()) connection.write();
+                        }
+                    } catch (IOException e) {
+                        if(key.attachment() != null) ((Connection) key.attachment()).close();
+                    }
+                }
+            }
+        } catch (ClosedSelectorException ignored) {
+            // stopped
+        } catch (IOException e) {
+            onError.accept(e);
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = server.accept();
+        if(channel == null) return;
+
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        Connection connection = new Connection(channel);
+        connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+    }
+
+    private final class Connection {
+        private final SocketChannel channel;
+        private final ByteBuffer in = pool.acquire();
+        private final Frame.Reader reader = new Frame.Reader();
+
+        // replies completed by handlers, not yet picked up by the selector thread
+        private final Queue<Frame> replies = new ConcurrentLinkedQueue<>();
+        // encoded replies owned by the selector thread
+        private final Queue<ByteBuffer> out = new ArrayDeque<>();
+
+        private SelectionKey key;
+        private boolean closed;
+
+        private Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        private void read() throws IOException {
+            int n = channel.read(in);
+            if(n < 0) {
+                close();
+                return;
+            }
+
+            in.flip();
+            reader.read(in, this::dispatch);
+        }
+
+        private void dispatch(Frame request) {
+            long received = System.nanoTime();
+            CompletableFuture
+                    .supplyAsync(() -> handler.handle(request, received), handlers)
+                    .thenCompose(reply -> reply)
+                    .whenComplete((frame, e) -> {
+                        replies.offer(e != null ? error(request, e) : frame);
+                        flush.offer(this);
+                        selector.wakeup();
+                    });
+        }
+
+        private void enableWrite() {
+            if(!key.isValid()) return;
+
+            Frame reply;
+            while ((reply = replies.poll()) != null) out.offer(reply.encode(pool));
+            if(!out.isEmpty()) key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+        }
+
+        private void write() throws IOException {
+            enableWrite();
+
+            ByteBuffer buffer;
+            while ((buffer = out.peek()) != null) {
+                channel.write(buffer);
+                if(buffer.hasRemaining()) return;
+
+                out.poll();
+                pool.release(buffer);
+            }
+
+            key.interestOps(SelectionKey.OP_READ);
+        }
+
+        private void close() {
+            if(closed) return;
+            closed = true;
+
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // closing anyway
+            }
+
+            pool.release(in);
+            out.forEach(pool::release);
+            out.clear();
+        }
+    }
+
+    private static Frame error(Frame request, Throwable e) {
+        Throwable cause = (e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+        return new Frame(request.id, Frame.ERROR, 0, 0,
+                String.valueOf(cause).getBytes(UTF_8));
+    }
+}
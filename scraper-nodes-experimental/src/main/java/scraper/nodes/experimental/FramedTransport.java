@@ -0,0 +1,138 @@
+package scraper.nodes.experimental;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static java.net.HttpURLConnection.HTTP_GATEWAY_TIMEOUT;
+import static java.net.HttpURLConnection.HTTP_INTERNAL_ERROR;
+import static java.net.HttpURLConnection.HTTP_OK;
+import static java.net.HttpURLConnection.HTTP_UNAVAILABLE;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Length-prefixed binary frames over one persistent connection per worker.
+ * Worker endpoints address the framed port of {@link DistributedServer}.
+ * Reply states are mapped to their HTTP status counterparts, so clients handle both transports alike.
+ * Connections are opened on a separate thread, one connect per worker at a time, so that senders to other
+ * workers and the threads completing replies never wait for a connect.
+ */
+final class FramedTransport implements Transport {
+
+    // busy replies without a readable hint
+    private static final long DEFAULT_RETRY_AFTER_MILLIS = 1000;
+
+    private static final ExecutorService connector = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "framed-transport-connect");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final WireFormat format;
+    private final boolean compress;
+    private final boolean delta;
+    private final int connectTimeout;
+
+    // pending or established connection per worker, replaced after a failure
+    private final Map<Worker, CompletableFuture<FrameConnection>> connections = new ConcurrentHashMap<>();
+
+    FramedTransport(WireFormat format, boolean compress, boolean delta, int connectTimeout) {
+        this.format = format;
+        this.compress = compress;
+        this.delta = delta;
+        this.connectTimeout = connectTimeout;
+    }
+
+    @Override
+    public CompletableFuture<Reply> send(Worker worker, boolean batch, byte[] payload, long budget) {
+        byte flags = 0;
+        if(batch) flags |= Frame.BATCH;
+        if(delta) flags |= Frame.DELTA;
+        if(compress) flags |= Frame.COMPRESSED;
+        if(format == WireFormat.SMILE) flags |= Frame.SMILE;
+        byte requestFlags = flags;
+
+        CompletableFuture<Reply> reply = new CompletableFuture<>();
+        connection(worker).whenComplete((connection, e) -> {
+            if(e != null) {
+                reply.completeExceptionally(e);
+                return;
+            }
+            if(reply.isDone()) return;
+
+            CompletableFuture<Frame> sent = connection.send(requestFlags, (int) Math.min(budget, Integer.MAX_VALUE), payload);
+            // a cancelled reply drops the outstanding request, a late reply frame is ignored
+            reply.whenComplete((r, ex) -> {
+                if(reply.isCancelled()) sent.cancel(true);
+            });
+            sent.whenComplete((frame, ex) -> {
+                if(ex != null) reply.completeExceptionally(ex);
+                else reply.complete(reply(frame));
+            });
+        });
+        return reply;
+    }
+
+    private Reply reply(Frame frame) {
+        return new Reply(
+                status(frame.code),
+                frame.payload,
+                // errors are plain text, results mirror the request encoding
+                (frame.code == Frame.OK ? format : WireFormat.JSON),
+                frame.code == Frame.OK && compress,
+                frame.a + "/" + frame.b,
+                (frame.code == Frame.BUSY ? retryAfterMillis(frame) : DEFAULT_RETRY_AFTER_MILLIS)
+        );
+    }
+
+    /** Open or pending connection to the worker, reconnects after a failure */
+    private CompletableFuture<FrameConnection> connection(Worker worker) {
+        while (true) {
+            CompletableFuture<FrameConnection> current = connections.get(worker);
+            if(current != null && isUsable(current)) return current;
+
+            CompletableFuture<FrameConnection> connecting = new CompletableFuture<>();
+            boolean owner = (current == null
+                    ? connections.putIfAbsent(worker, connecting) == null
+                    : connections.replace(worker, current, connecting));
+            // another sender replaced it first, use its connection
+            if(!owner) continue;
+
+            InetSocketAddress address = new InetSocketAddress(worker.getUri().getHost(), worker.getUri().getPort());
+            connector.execute(() -> {
+                try {
+                    connecting.complete(new FrameConnection(address, connectTimeout));
+                } catch (IOException e) {
+                    connecting.completeExceptionally(e);
+                }
+            });
+            return connecting;
+        }
+    }
+
+    private static boolean isUsable(CompletableFuture<FrameConnection> connection) {
+        if(!connection.isDone()) return true;
+        return !connection.isCompletedExceptionally() && connection.join().isOpen();
+    }
+
+    private static long retryAfterMillis(Frame frame) {
+        try {
+            return Long.parseLong(new String(frame.payload, UTF_8).trim()) * 1000;
+        } catch (NumberFormatException e) {
+            return DEFAULT_RETRY_AFTER_MILLIS;
+        }
+    }
+
+    private static int status(byte code) {
+        switch (code) {
+            case Frame.OK: return HTTP_OK;
+            case Frame.BUSY: return HTTP_UNAVAILABLE;
+            case Frame.EXPIRED: return HTTP_GATEWAY_TIMEOUT;
+            default: return HTTP_INTERNAL_ERROR;
+        }
+    }
+}
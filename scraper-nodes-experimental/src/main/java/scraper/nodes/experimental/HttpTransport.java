@@ -0,0 +1,69 @@
+package scraper.nodes.experimental;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+import static scraper.nodes.experimental.DistributedServer.BATCH_PATH;
+import static scraper.nodes.experimental.DistributedServer.DEADLINE_HEADER;
+import static scraper.nodes.experimental.DistributedServer.DELTA_HEADER;
+import static scraper.nodes.experimental.DistributedServer.LOAD_HEADER;
+
+/**
+ * One HTTP <code>POST</code> per request over a shared {@link HttpClient}.
+ */
+final class HttpTransport implements Transport {
+
+    private final HttpClient http;
+    private final WireFormat format;
+    private final boolean compress;
+    private final boolean delta;
+
+    HttpTransport(HttpClient http, WireFormat format, boolean compress, boolean delta) {
+        this.http = http;
+        this.format = format;
+        this.compress = compress;
+        this.delta = delta;
+    }
+
+    @Override
+    public CompletableFuture<Reply> send(Worker worker, boolean batch, byte[] payload, long budget) {
+        URI uri = (batch ? worker.getUri().resolve(BATCH_PATH) : worker.getUri());
+
+        HttpRequest.Builder request = HttpRequest.newBuilder(uri)
+                .timeout(Duration.ofMillis(budget))
+                .header(DEADLINE_HEADER, String.valueOf(budget))
+                .header("Content-Type", format.getContentType())
+                .header("Accept", format.getContentType())
+                .POST(HttpRequest.BodyPublishers.ofByteArray(payload));
+        if(compress) request.header("Content-Encoding", WireFormat.DEFLATE);
+        if(delta) request.header(DELTA_HEADER, "true");
+
+        CompletableFuture<HttpResponse<byte[]>> exchange = http.sendAsync(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+        CompletableFuture<Reply> reply = exchange
+                .thenApply(response -> new Reply(
+                        response.statusCode(),
+                        response.body(),
+                        WireFormat.ofContentType(response.headers().firstValue("Content-Type").orElse(null)),
+                        WireFormat.isCompressed(response.headers().firstValue("Content-Encoding").orElse(null)),
+                        response.headers().firstValue(LOAD_HEADER).orElse(null),
+                        retryAfterMillis(response)
+                ));
+        // a cancelled reply cancels the exchange
+        reply.whenComplete((r, e) -> {
+            if(reply.isCancelled()) exchange.cancel(true);
+        });
+        return reply;
+    }
+
+    private static long retryAfterMillis(HttpResponse<?> response) {
+        try {
+            return Long.parseLong(response.headers().firstValue("Retry-After").orElse("1")) * 1000;
+        } catch (NumberFormatException e) {
+            return 1000;
+        }
+    }
+}
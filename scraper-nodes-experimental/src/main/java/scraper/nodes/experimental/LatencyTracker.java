@@ -0,0 +1,45 @@
+package scraper.nodes.experimental;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the latest request latencies in a ring and answers percentiles over them.
+ * The percentile is recomputed every <code>RECOMPUTE</code> samples, reads in between are constant time.
+ */
+final class LatencyTracker {
+
+    private static final int SAMPLES = 1024;
+    private static final int RECOMPUTE = 64;
+    // no estimate before this many samples are known
+    private static final int MIN_SAMPLES = 32;
+
+    private final int percentile;
+
+    // guarded by this
+    private final long[] ring = new long[SAMPLES];
+    private int next = 0;
+    private int size = 0;
+    private int sinceRecompute = 0;
+
+    private volatile long estimate = -1;
+
+    LatencyTracker(int percentile) {
+        this.percentile = Math.max(1, Math.min(percentile, 100));
+    }
+
+    synchronized void record(long millis) {
+        ring[next] = millis;
+        next = (next + 1) % SAMPLES;
+        if(size < SAMPLES) size++;
+
+        if(++sinceRecompute >= RECOMPUTE && size >= MIN_SAMPLES) {
+            sinceRecompute = 0;
+            long[] sorted = Arrays.copyOf(ring, size);
+            Arrays.sort(sorted);
+            estimate = sorted[Math.min(size - 1, (size * percentile) / 100)];
+        }
+    }
+
+    /** Latency at the configured percentile in milliseconds, -1 if not enough samples are known yet */
+    long estimate() { return estimate; }
+}
@@ -0,0 +1,271 @@
+package scraper.nodes.experimental;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Results of remote flows keyed by the SHA-256 hash of their scope and canonical request content.
+ * The scope identifies the flow which computes the results, so caches of different targets sharing a directory
+ * never answer each other's requests.
+ * <p>
+ * Contents are canonicalized by encoding them as Smile with map entries sorted by key, so equal contents hash
+ * equally regardless of map order. Results are kept encoded, every hit decodes a fresh copy.
+ * </p>
+ * <p>
+ * The memory tier keeps the <code>maxEntries</code> most recently used results. If a directory is given,
+ * results are also written there, one file per hash, and survive restarts; the oldest files are deleted when the
+ * directory holds more than <code>maxDiskBytes</code>. Entries of both tiers expire <code>ttlMillis</code> after
+ * they were stored, expired files are deleted with the next put. Disk errors are ignored, the cache is best effort.
+ * </p>
+ */
+final class ResultCache {
+
+    private static final ObjectMapper canonical = new ObjectMapper(new SmileFactory())
+            .configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+
+    private final byte[] scope;
+    private final int maxEntries;
+    private final long ttlMillis;
+    // null if there is no disk tier
+    private final Path directory;
+    private final long maxDiskBytes;
+
+    // guarded by itself, access ordered
+    private final LinkedHashMap<String, Entry> entries;
+    // files of the disk tier, guarded by itself, oldest first
+    private final LinkedHashMap<String, Stored> files = new LinkedHashMap<>();
+    // total size of the files, guarded by files
+    private long diskBytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    ResultCache(String scope, int maxEntries, long ttlMillis, Path directory, long maxDiskBytes) throws IOException {
+        this.scope = scope.getBytes(UTF_8);
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+        this.directory = directory;
+        this.maxDiskBytes = maxDiskBytes;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > ResultCache.this.maxEntries;
+            }
+        };
+
+        if(directory != null) {
+            Files.createDirectories(directory);
+            scan();
+        }
+    }
+
+    /** Stable key of a request content in this scope; delta results differ from full results and are keyed apart */
+    String key(Map<String, ?> content, boolean delta) throws IOException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            // length prefixed, so that scope and content bytes cannot shift into each other
+            digest.update(ByteBuffer.allocate(4).putInt(scope.length).array());
+            digest.update(scope);
+            digest.update(canonical.writeValueAsBytes(content));
+            digest.update((byte) (delta ? 1 : 0));
+
+            StringBuilder hex = new StringBuilder(64);
+            for (byte b : digest.digest()) hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /** Cached result of the key, or null */
+    @SuppressWarnings("unchecked")
+    Map<String, Object> get(String key) {
+        long now = System.currentTimeMillis();
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if(entry != null && entry.expires <= now) {
+                entries.remove(key);
+                entry = null;
+            }
+        }
+
+        if(entry == null) entry = load(key, now);
+        if(entry == null) {
+            misses.increment();
+            return null;
+        }
+
+        try {
+            Map<String, Object> result = canonical.readValue(entry.encoded, Map.class);
+            hits.increment();
+            return result;
+        } catch (IOException e) {
+            misses.increment();
+            return null;
+        }
+    }
+
+    void put(String key, Map<?, ?> result) {
+        byte[] encoded;
+        try {
+            encoded = canonical.writeValueAsBytes(result);
+        } catch (IOException e) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        synchronized (entries) {
+            entries.put(key, new Entry(encoded, now + ttlMillis));
+        }
+
+        if(directory != null) {
+            try {
+                Path tmp = Files.createTempFile(directory, key, ".tmp");
+                Files.write(tmp, encoded);
+                Files.move(tmp, directory.resolve(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException ignored) {
+                // not persisted, still cached in memory
+                return;
+            }
+
+            List<String> evicted = new ArrayList<>();
+            synchronized (files) {
+                unstore(key);
+                files.put(key, new Stored(key, encoded.length, now));
+                diskBytes += encoded.length;
+                evict(now, evicted);
+            }
+            for (String old : evicted) delete(old);
+        }
+    }
+
+    long getHits() { return hits.sum(); }
+
+    long getMisses() { return misses.sum(); }
+
+    /** Reads an entry of the disk tier into memory, deletes it if expired */
+    private Entry load(String key, long now) {
+        if(directory == null) return null;
+
+        Path file = directory.resolve(key);
+        try {
+            if(!Files.exists(file)) return null;
+
+            long expires = Files.getLastModifiedTime(file).toMillis() + ttlMillis;
+            if(expires <= now) {
+                synchronized (files) {
+                    unstore(key);
+                }
+                Files.deleteIfExists(file);
+                return null;
+            }
+
+            Entry entry = new Entry(Files.readAllBytes(file), expires);
+            synchronized (entries) {
+                entries.put(key, entry);
+            }
+            return entry;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /** Indexes the files of the disk tier oldest first, deletes expired and unfinished files */
+    private void scan() throws IOException {
+        long now = System.currentTimeMillis();
+        List<Path> found = new ArrayList<>();
+        try (Stream<Path> listed = Files.list(directory)) {
+            listed.filter(Files::isRegularFile).forEach(found::add);
+        }
+
+        List<Stored> stored = new ArrayList<>();
+        for (Path file : found) {
+            long written = Files.getLastModifiedTime(file).toMillis();
+            if(file.getFileName().toString().endsWith(".tmp") || written + ttlMillis <= now) {
+                Files.deleteIfExists(file);
+            } else {
+                stored.add(new Stored(file.getFileName().toString(), Files.size(file), written));
+            }
+        }
+        stored.sort(Comparator.comparingLong(file -> file.written));
+
+        List<String> evicted = new ArrayList<>();
+        synchronized (files) {
+            for (Stored file : stored) {
+                files.put(file.key, file);
+                diskBytes += file.size;
+            }
+            evict(now, evicted);
+        }
+        for (String old : evicted) delete(old);
+    }
+
+    // guarded by files, collects expired files and the oldest files over the size limit
+    private void evict(long now, List<String> evicted) {
+        Iterator<Stored> oldest = files.values().iterator();
+        while (oldest.hasNext()) {
+            Stored file = oldest.next();
+            if(diskBytes <= maxDiskBytes && file.written + ttlMillis > now) break;
+
+            oldest.remove();
+            diskBytes -= file.size;
+            evicted.add(file.key);
+        }
+    }
+
+    // guarded by files
+    private void unstore(String key) {
+        Stored old = files.remove(key);
+        if(old != null) diskBytes -= old.size;
+    }
+
+    private void delete(String key) {
+        try {
+            Files.deleteIfExists(directory.resolve(key));
+        } catch (IOException ignored) {
+            // deleted with the next scan
+        }
+    }
+
+    private static final class Stored {
+        final String key;
+        final long size;
+        final long written;
+
+        Stored(String key, long size, long written) {
+            this.key = key;
+            this.size = size;
+            this.written = written;
+        }
+    }
+
+    private static final class Entry {
+        final byte[] encoded;
+        final long expires;
+
+        Entry(byte[] encoded, long expires) {
+            this.encoded = encoded;
+            this.expires = expires;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package scraper.nodes.experimental;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Carries encoded flow map contents from a {@link DistributedClient} to a {@link Worker}.
+ */
+interface Transport {
+
+    /** Transports selectable on {@link DistributedRequest} */
+    enum Kind { HTTP, FRAMED }
+
+    /**
+     * Sends the payload, a single content or a batch of contents, with the remaining time budget in milliseconds.
+     * The future completes with the worker's reply or exceptionally if the worker could not be reached.
+     * Cancelling the future abandons the request, its reply is ignored.
+     */
+    CompletableFuture<Reply> send(Worker worker, boolean batch, byte[] payload, long budget);
+
+    /** Transport independent reply of a worker */
+    final class Reply {
+        final int status;
+        final byte[] body;
+        final WireFormat format;
+        final boolean compressed;
+        // pending/maxPending report, may be null
+        final String load;
+        final long retryAfterMillis;
+
+        Reply(int status, byte[] body, WireFormat format, boolean compressed, String load, long retryAfterMillis) {
+            this.status = status;
+            this.body = body;
+            this.format = format;
+            this.compressed = compressed;
+            this.load = load;
+            this.retryAfterMillis = retryAfterMillis;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package scraper.nodes.experimental;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Encoding of flow maps between {@link DistributedRequest} and {@link DistributedServer}.
+ * <p>
+ * The format is selected by content type, JSON is the fallback for unknown or missing types.
+ * Bodies can additionally be deflate compressed, signalled by the <code>Content-Encoding</code> header.
+ * </p>
+ */
+enum WireFormat {
+    /** Plain JSON text */
+    JSON("application/json", new ObjectMapper()),
+    /** Jackson Smile, binary JSON */
+    SMILE("application/x-jackson-smile", new ObjectMapper(new SmileFactory()));
+
+    static final String DEFLATE = "deflate";
+
+    private final String contentType;
+    private final ObjectMapper mapper;
+
+    WireFormat(String contentType, ObjectMapper mapper) {
+        this.contentType = contentType;
+        this.mapper = mapper;
+    }
+
+    String getContentType() { return contentType; }
+
+    /** Format for the given content type, JSON if the type is unknown */
+    static WireFormat ofContentType(String contentType) {
+        if(contentType != null) {
+            for (WireFormat format : values()) {
+                if(contentType.startsWith(format.contentType)) return format;
+            }
+        }
+
+        return JSON;
+    }
+
+    static boolean isCompressed(String contentEncoding) {
+        return contentEncoding != null && contentEncoding.contains(DEFLATE);
+    }
+
+    byte[] encode(Object value, boolean compress) throws IOException {
+        if(!compress) return mapper.writeValueAsBytes(value);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try (DeflaterOutputStream out = new DeflaterOutputStream(bytes, deflater)) {
+            mapper.writeValue(out, value);
+        } finally {
+            deflater.end();
+        }
+        return bytes.toByteArray();
+    }
+
+    <A> A decode(byte[] body, Class<A> type, boolean compressed) throws IOException {
+        if(!compressed) return mapper.readValue(body, type);
+
+        try (InputStream in = new InflaterInputStream(new ByteArrayInputStream(body))) {
+            return mapper.readValue(in, type);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package scraper.nodes.experimental;
+
+import java.net.URI;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A remote {@link DistributedServer} endpoint with in-flight accounting and passive health state.
+ * <p>
+ * After <code>maxFailures</code> consecutive failures the worker is ejected for a back-off period which doubles on
+ * every ejection in a row. Once the period is over, the worker is re-admitted; a success resets its health.
+ * </p>
+ */
+final class Worker {
+
+    private static final long MAX_EJECTION_MILLIS = 5 * 60 * 1000;
+
+    private final URI uri;
+    private final int maxInFlight;
+    private final int maxFailures;
+    private final long ejectMillis;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    // guarded by this
+    private int failures = 0;
+    private int ejections = 0;
+    private volatile long ejectedUntil = 0;
+
+    private volatile long busyUntil = 0;
+    private volatile double load = 0;
+
+    Worker(URI uri, int maxInFlight, int maxFailures, long ejectMillis) {
+        this.uri = uri;
+        this.maxInFlight = maxInFlight;
+        this.maxFailures = maxFailures;
+        this.ejectMillis = ejectMillis;
+    }
+
+    URI getUri() { return uri; }
+
+    int getInFlight() { return inFlight.get(); }
+
+    boolean isEjected(long now) { return now < ejectedUntil || now < busyUntil; }
+
+    /** Lower is better, combines local in-flight requests and the load reported by the worker */
+    double score() { return (double) inFlight.get() / maxInFlight + load; }
+
+    /** Parses a <code>pending/maxPending</code> load report, ignores malformed reports */
+    void reportLoad(String report) {
+        if(report == null) return;
+
+        int split = report.indexOf('/');
+        if(split <= 0) return;
+        try {
+            double pending = Double.parseDouble(report.substring(0, split));
+            double max = Double.parseDouble(report.substring(split + 1));
+            if(max > 0) load = pending / max;
+        } catch (NumberFormatException ignored) {}
+    }
+
+    /** Worker is at capacity and asked to retry after the given time */
+    void onBusy(long until) {
+        busyUntil = until;
+        load = 1;
+    }
+
+    /** Reserves an in-flight slot if the per-worker limit allows it */
+    boolean tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if(current >= maxInFlight) return false;
+            if(inFlight.compareAndSet(current, current + 1)) return true;
+        }
+    }
+
+    void release() { inFlight.decrementAndGet(); }
+
+    synchronized void onSuccess() {
+        failures = 0;
+        ejections = 0;
+    }
+
+    /** Records a failure, returns true if the worker got ejected */
+    synchronized boolean onFailure(long now) {
+        failures++;
+        if(failures < maxFailures) return false;
+
+        failures = 0;
+        long backOff = Math.min(MAX_EJECTION_MILLIS, ejectMillis << Math.min(ejections, 16));
+        ejections++;
+        ejectedUntil = now + backOff;
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return uri.getHost() + ":" + uri.getPort();
+    }
+}
@@ -0,0 +1,148 @@
+package scraper.nodes.experimental;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeoutException;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Selects workers with power-of-two-choices on outstanding requests and reported load.
+ * <p>
+ * Two random healthy workers with a free in-flight slot are compared and the less loaded one is taken.
+ * Ejected workers are skipped unless every worker is ejected, in which case all are considered again.
+ * If every worker is at its in-flight limit, the caller waits for a slot, either blocking or asynchronously.
+ * </p>
+ */
+final class WorkerPool {
+
+    private final List<Worker> workers;
+    private final Object slotFreed = new Object();
+    private final Queue<Waiter> waiters = new ConcurrentLinkedQueue<>();
+
+    WorkerPool(List<Worker> workers) {
+        if(workers.isEmpty()) throw new IllegalArgumentException("No workers defined");
+        this.workers = List.copyOf(workers);
+    }
+
+    List<Worker> getWorkers() { return workers; }
+
+    /** Reserves a slot on a worker, waiting at most <code>timeoutMillis</code> for one to become free */
+    Worker acquire(long timeoutMillis) throws InterruptedException, TimeoutException {
+        return acquire(timeoutMillis, null);
+    }
+
+    /** Reserves a slot like {@link #acquire(long)}, prefers any other worker over <code>avoid</code> */
+    Worker acquire(long timeoutMillis, Worker avoid) throws InterruptedException, TimeoutException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+
+        while (true) {
+            Worker worker = select(System.currentTimeMillis(), avoid);
+            if(worker != null) return worker;
+
+            synchronized (slotFreed) {
+                long remaining = deadline - System.currentTimeMillis();
+                if(remaining <= 0) throw new TimeoutException("No worker slot free after " + timeoutMillis + " ms");
+                // re-check periodically, ejected workers become available without a release
+                slotFreed.wait(Math.min(remaining, 100));
+            }
+        }
+    }
+
+    /**
+     * Reserves a slot like {@link #acquire(long, Worker)} without blocking. The future completes once a slot is
+     * released to it, or fails with a {@link TimeoutException} after <code>timeoutMillis</code>
+     */
+    CompletableFuture<Worker> acquireAsync(long timeoutMillis, Worker avoid, ScheduledExecutorService timer) {
+        Worker worker = select(System.currentTimeMillis(), avoid);
+        if(worker != null) return CompletableFuture.completedFuture(worker);
+
+        Waiter waiter = new Waiter(avoid);
+        ScheduledFuture<?> expiry = timer.schedule(() -> waiter.slot.completeExceptionally(
+                new TimeoutException("No worker slot free after " + timeoutMillis + " ms")), timeoutMillis, MILLISECONDS);
+        // re-check periodically, ejected workers become available without a release
+        ScheduledFuture<?> recheck = timer.scheduleWithFixedDelay(this::handOff, 100, 100, MILLISECONDS);
+        waiter.slot.whenComplete((w, e) -> {
+            expiry.cancel(false);
+            recheck.cancel(false);
+        });
+
+        waiters.add(waiter);
+        // a slot may have been released before the waiter was queued
+        handOff();
+        return waiter.slot;
+    }
+
+    void release(Worker worker) {
+        worker.release();
+        handOff();
+        synchronized (slotFreed) {
+            slotFreed.notify();
+        }
+    }
+
+    /** Passes free slots to asynchronous waiters in arrival order */
+    private void handOff() {
+        for (Waiter waiter : waiters) {
+            if(waiter.slot.isDone()) {
+                waiters.remove(waiter);
+                continue;
+            }
+
+            Worker worker = select(System.currentTimeMillis(), waiter.avoid);
+            if(worker == null) continue;
+
+            waiters.remove(waiter);
+            // timed out concurrently, or handed a slot by another thread
+            if(!waiter.slot.complete(worker)) worker.release();
+        }
+    }
+
+    private Worker select(long now, Worker avoid) {
+        List<Worker> candidates = new ArrayList<>(workers.size());
+        for (Worker worker : workers) {
+            if(!worker.isEjected(now) && worker != avoid) candidates.add(worker);
+        }
+        // panic mode, better to try ejected workers than to fail every request
+        if(candidates.isEmpty()) {
+            candidates.addAll(workers);
+            if(workers.size() > 1) candidates.remove(avoid);
+        }
+
+        while (!candidates.isEmpty()) {
+            Worker chosen = pickTwo(candidates);
+            if(chosen.tryAcquire()) return chosen;
+            candidates.remove(chosen);
+        }
+
+        return null;
+    }
+
+    private static final class Waiter {
+        final Worker avoid;
+        final CompletableFuture<Worker> slot = new CompletableFuture<>();
+
+        Waiter(Worker avoid) {
+            this.avoid = avoid;
+        }
+    }
+
+    private static Worker pickTwo(List<Worker> candidates) {
+        if(candidates.size() == 1) return candidates.get(0);
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int a = random.nextInt(candidates.size());
+        int b = random.nextInt(candidates.size() - 1);
+        if(b >= a) b++;
+
+        Worker first = candidates.get(a);
+        Worker second = candidates.get(b);
+        return first.score() <= second.score() ? first : second;
+    }
+}
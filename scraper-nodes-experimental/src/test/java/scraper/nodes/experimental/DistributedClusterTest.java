@@ -0,0 +1,230 @@
+package scraper.nodes.experimental;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestReporter;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import scraper.api.flow.FlowMap;
+import scraper.api.flow.impl.FlowMapImpl;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Starts N distributed workers on ephemeral localhost ports and drives them with a {@link DistributedClient},
+ * the sending part of {@link DistributedRequest}. The distributed target is synthetic, either latency bound
+ * (non-blocking delay), CPU bound or immediate. Every result is checked, throughput and latencies are published as
+ * test report entries.
+ * <p>
+ * Throughput comparisons between cluster sizes and transports depend on the machine and are tagged
+ * <code>benchmark</code>, they only run with <code>-Pbenchmark</code>.
+ * </p>
+ */
+public class DistributedClusterTest {
+
+    private static final int WORKER_CAPACITY = 4;
+    private static final long LATENCY_MILLIS = 20;
+    private static final int WARMUP = 50;
+
+    // consumes the work of the CPU bound target, so that it is not optimized away
+    private static volatile long sink;
+
+    enum Load { LATENCY, CPU, NONE }
+
+    @ParameterizedTest
+    @EnumSource(Transport.Kind.class)
+    public void everyRequestIsAnswered(Transport.Kind transport, TestReporter reporter) throws Exception {
+        Report report = run(2, transport, Load.LATENCY, 200);
+        reporter.publishEntry(transport + " 2 workers", report.toString());
+
+        assertEquals(200, report.requests);
+        assertTrue(report.p50 >= LATENCY_MILLIS, "Answered faster than the target: " + report);
+    }
+
+    @Tag("benchmark")
+    @ParameterizedTest
+    @EnumSource(Transport.Kind.class)
+    public void latencyBoundThroughputScalesWithWorkers(Transport.Kind transport, TestReporter reporter)
+            throws Exception {
+        Report one = run(1, transport, Load.LATENCY, 200);
+        Report four = run(4, transport, Load.LATENCY, 800);
+        reporter.publishEntry(transport + " 1 worker", one.toString());
+        reporter.publishEntry(transport + " 4 workers", four.toString());
+
+        assertTrue(four.throughput > 2 * one.throughput,
+                "Expected 4 workers to more than double the throughput of 1 worker: " + one + " vs " + four);
+    }
+
+    @Tag("benchmark")
+    @Test
+    public void cpuBoundThroughputDoesNotDropWithWorkers(TestReporter reporter) throws Exception {
+        int cores = Runtime.getRuntime().availableProcessors();
+        Report one = run(1, Transport.Kind.HTTP, Load.CPU, 200);
+        reporter.publishEntry("1 worker", one.toString());
+        for (int workers = 2; workers <= Math.min(4, cores); workers *= 2) {
+            Report more = run(workers, Transport.Kind.HTTP, Load.CPU, 200);
+            reporter.publishEntry(workers + " workers", more.toString());
+            assertTrue(more.throughput > 0.8 * one.throughput,
+                    "Expected " + workers + " workers to keep the throughput of 1 worker: " + one + " vs " + more);
+        }
+    }
+
+    @Tag("benchmark")
+    @Test
+    public void framedTransportKeepsUpWithHttp(TestReporter reporter) throws Exception {
+        // an immediate target, so that the transport dominates
+        Report http = run(2, Transport.Kind.HTTP, Load.NONE, 4000);
+        Report framed = run(2, Transport.Kind.FRAMED, Load.NONE, 4000);
+        reporter.publishEntry("HTTP", http.toString());
+        reporter.publishEntry("FRAMED", framed.toString());
+
+        assertTrue(framed.throughput > 0.8 * http.throughput,
+                "Expected the framed transport to keep up with HTTP: " + http + " vs " + framed);
+    }
+
+    private static Report run(int workers, Transport.Kind transport, Load load, int requests) throws Exception {
+        try (Cluster cluster = new Cluster(workers, load)) {
+            DistributedClient client = cluster.client(transport);
+            drive(client, WARMUP);
+
+            return drive(client, requests);
+        }
+    }
+
+    /** Submits all requests as fast as the in-flight limits allow and checks every result */
+    private static Report drive(DistributedClient client, int requests) throws Exception {
+        long[] latencies = new long[requests];
+        AtomicInteger answered = new AtomicInteger();
+        List<CompletableFuture<?>> results = new ArrayList<>(requests);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < requests; i++) {
+            int n = i;
+            long sent = System.nanoTime();
+            results.add(client.submit(Map.of("n", n)).thenAccept(result -> {
+                latencies[n] = System.nanoTime() - sent;
+                assertEquals((long) n * n, ((Number) result.get("square")).longValue());
+                answered.incrementAndGet();
+            }));
+        }
+        CompletableFuture.allOf(results.toArray(new CompletableFuture[0])).get(60, SECONDS);
+        long elapsed = System.nanoTime() - start;
+
+        Arrays.sort(latencies);
+        return new Report(
+                answered.get(),
+                requests * 1e9 / elapsed,
+                latencies[requests / 2] / 1e6,
+                latencies[requests * 99 / 100] / 1e6
+        );
+    }
+
+    private static final class Report {
+        final int requests;
+        final double throughput;
+        final double p50;
+        final double p99;
+
+        Report(int requests, double throughput, double p50, double p99) {
+            this.requests = requests;
+            this.throughput = throughput;
+            this.p50 = p50;
+            this.p99 = p99;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("requests=%d throughput=%.0f/s p50=%.1fms p99=%.1fms", requests, throughput, p50, p99);
+        }
+    }
+
+    /** Workers with HTTP and framed endpoints, each admitting {@link #WORKER_CAPACITY} requests */
+    private static final class Cluster implements AutoCloseable {
+        private final List<Server> servers = new ArrayList<>();
+        private final List<FrameServer> frameServers = new ArrayList<>();
+        private final ExecutorService cpu = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+
+        Cluster(int workers, Load load) throws Exception {
+            for (int i = 0; i < workers; i++) {
+                DistributedServer.SocketHandler handler = new DistributedServer.SocketHandler(
+                        target(load), (level, format, args) -> {}, WORKER_CAPACITY, 1, null);
+
+                servers.add(DistributedServer.serve(0, handler));
+
+                FrameServer frames = new FrameServer(0, handler::handleFrame, Throwable::printStackTrace);
+                frames.start();
+                frameServers.add(frames);
+            }
+        }
+
+        DistributedClient client(Transport.Kind kind) {
+            List<Worker> workers = new ArrayList<>();
+            for (int i = 0; i < servers.size(); i++) {
+                int port = (kind == Transport.Kind.FRAMED
+                        ? frameServers.get(i).getPort()
+                        : ((ServerConnector) servers.get(i).getConnectors()[0]).getLocalPort());
+                workers.add(new Worker(URI.create("http://localhost:" + port), WORKER_CAPACITY, 3, 1000));
+            }
+
+            Transport transport = (kind == Transport.Kind.FRAMED
+                    ? new FramedTransport(WireFormat.JSON, false, false, 5000)
+                    : new HttpTransport(HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build(),
+                    WireFormat.JSON, false, false));
+            return new DistributedClient(transport, new WorkerPool(workers), WireFormat.JSON, false, 30000, timer);
+        }
+
+        private DistributedServer.Target target(Load load) {
+            if(load == Load.NONE) return content -> CompletableFuture.completedFuture(square(content));
+            if(load == Load.LATENCY) {
+                return content -> CompletableFuture.supplyAsync(() -> square(content),
+                        CompletableFuture.delayedExecutor(LATENCY_MILLIS, MILLISECONDS));
+            }
+            return content -> CompletableFuture.supplyAsync(() -> {
+                burn();
+                return square(content);
+            }, cpu);
+        }
+
+        private static FlowMap square(Map<String, Object> content) {
+            long n = ((Number) content.get("n")).longValue();
+            Map<String, Object> result = new HashMap<>(content);
+            result.put("square", n * n);
+            return FlowMapImpl.origin(result);
+        }
+
+        // roughly a millisecond of work
+        private static void burn() {
+            long x = 0;
+            for (int i = 0; i < 2_000_000; i++) x += (x ^ i) * 31;
+            sink = x;
+        }
+
+        @Override
+        public void close() throws Exception {
+            for (Server server : servers) server.stop();
+            for (FrameServer frames : frameServers) frames.stop();
+            cpu.shutdownNow();
+            timer.shutdownNow();
+        }
+    }
+}
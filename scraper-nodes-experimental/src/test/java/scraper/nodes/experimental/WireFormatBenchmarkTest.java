@@ -0,0 +1,83 @@
+package scraper.nodes.experimental;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestReporter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Encodes and decodes a typical flow map with every {@link WireFormat}, with and without deflate, and reports
+ * body size and round trips per second. Tagged <code>benchmark</code>, runs with <code>-Pbenchmark</code>.
+ */
+@Tag("benchmark")
+public class WireFormatBenchmarkTest {
+
+    private static final int WARMUP = 20_000;
+    private static final int ROUNDS = 50_000;
+
+    // consumes the decoded maps, so that decoding is not optimized away
+    private static volatile Object sink;
+
+    @Test
+    public void smileIsSmallerAndFasterThanJson(TestReporter reporter) throws Exception {
+        Map<String, Object> flowMap = flowMap();
+
+        long jsonSize = 0, smileSize = 0;
+        double jsonRate = 0, smileRate = 0;
+        for (WireFormat format : WireFormat.values()) {
+            for (boolean compress : new boolean[]{false, true}) {
+                byte[] body = format.encode(flowMap, compress);
+                assertEquals(flowMap, format.decode(body, Map.class, compress), format + " does not round trip");
+
+                roundTrips(format, compress, flowMap, WARMUP);
+                long start = System.nanoTime();
+                roundTrips(format, compress, flowMap, ROUNDS);
+                double rate = ROUNDS * 1e9 / (System.nanoTime() - start);
+
+                reporter.publishEntry(format + (compress ? "+deflate" : ""),
+                        String.format("size=%dB round trips=%.0f/s", body.length, rate));
+
+                if(!compress && format == WireFormat.JSON) { jsonSize = body.length; jsonRate = rate; }
+                if(!compress && format == WireFormat.SMILE) { smileSize = body.length; smileRate = rate; }
+            }
+        }
+
+        assertTrue(smileSize < jsonSize, "Smile body of " + smileSize + "B is not smaller than JSON of " + jsonSize + "B");
+        assertTrue(smileRate > 0.8 * jsonRate,
+                String.format("Smile round trips %.0f/s fall behind JSON %.0f/s", smileRate, jsonRate));
+    }
+
+    private static void roundTrips(WireFormat format, boolean compress, Map<String, Object> flowMap, int rounds)
+            throws Exception {
+        for (int i = 0; i < rounds; i++) {
+            sink = format.decode(format.encode(flowMap, compress), Map.class, compress);
+        }
+    }
+
+    /** A scraped page: scalars, a nested map and a list of links */
+    private static Map<String, Object> flowMap() {
+        Map<String, Object> flowMap = new HashMap<>();
+        flowMap.put("url", "https://example.org/articles/2020/04/some-article-title");
+        flowMap.put("status", 200);
+        flowMap.put("score", 0.75);
+        flowMap.put("fetched", true);
+
+        Map<String, Object> headers = new HashMap<>();
+        headers.put("Content-Type", "text/html; charset=utf-8");
+        headers.put("Content-Length", 48213);
+        headers.put("Last-Modified", "Tue, 14 Apr 2020 08:12:31 GMT");
+        flowMap.put("headers", headers);
+
+        List<Object> links = new ArrayList<>();
+        for (int i = 0; i < 40; i++) links.add("https://example.org/articles/2020/04/related-" + i);
+        flowMap.put("links", links);
+        return flowMap;
+    }
+}
@@ -0,0 +1,242 @@
+package scraper.nodes.server;
+
+import org.eclipse.jetty.rewrite.handler.RedirectPatternRule;
+import org.eclipse.jetty.rewrite.handler.Rule;
+import org.eclipse.jetty.server.Request;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Evaluates the redirect rules of a {@link RedirectServer} at most once per request path.
+ * <p>
+ * The outcome for a path (redirect location, rewritten path or no match) is kept in a bounded concurrent cache.
+ * Lookups do not lock; when the cache is full, the least recently used of a few sampled paths is evicted.
+ * Pattern rules are delegated to Jetty on a miss, regex rewrites follow the semantics of Jetty's <code>RewriteRegexRule</code>.
+ * The cache is dropped whenever the rules are reloaded.
+ */
+final class RedirectDecisionRule extends Rule implements Rule.ApplyURI {
+
+    private static final String DECISION = RedirectDecisionRule.class.getName() + ".decision";
+    private static final Decision NO_MATCH = new Decision(null, null, null, false);
+    // cached paths compared per eviction
+    private static final int EVICTION_SAMPLES = 8;
+
+    private final int cacheSize;
+    private final Map<String, Cached> cache = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    private volatile Rules rules;
+
+    RedirectDecisionRule(int cacheSize, Map<String, String> patternRedirect, Map<String, String> regexRedirect) {
+        this.cacheSize = cacheSize;
+        this.rules = new Rules(patternRedirect, regexRedirect);
+        setHandling(false);
+        setTerminating(false);
+    }
+
+    /** Replaces the rules if they changed and invalidates the cache. Returns true if the rules were replaced. */
+    boolean reload(Map<String, String> patternRedirect, Map<String, String> regexRedirect) {
+        Rules current = rules;
+        // rule order matters, compare in iteration order
+        if(current.patternRedirect.equals(entries(patternRedirect)) && current.regexRedirect.equals(entries(regexRedirect))) {
+            return false;
+        }
+
+        rules = new Rules(patternRedirect, regexRedirect);
+        cache.clear();
+        return true;
+    }
+
+    long getHits() { return hits.sum(); }
+    long getMisses() { return misses.sum(); }
+    int cached() { return cache.size(); }
+
+    double getHitRate() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    @Override
+    public String matchAndApply(String target, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        Cached cached = (cacheSize > 0 ? cache.get(target) : null);
+
+        if(cached != null) {
+            hits.increment();
+            cached.used = System.nanoTime();
+            return apply(cached.decision, target, request, response);
+        }
+
+        misses.increment();
+        Rules current = rules;
+
+        // pattern rules redirect on their own, remember the location
+        for (int i = 0; i < current.patterns.size(); i++) {
+            if(current.patterns.get(i).matchAndApply(target, request, response) != null) {
+                remember(current, target, new Decision(current.locations.get(i), null, null, false));
+                Request.getBaseRequest(request).setHandled(true);
+                return target;
+            }
+        }
+
+        Decision decision = current.rewrite(target);
+        remember(current, target, decision);
+        return apply(decision, target, request, response);
+    }
+
+    @Override
+    public void applyURI(Request request, String oldURI, String newURI) {
+        Decision decision = (Decision) request.getAttribute(DECISION);
+        String originalQuery = request.getQueryString();
+
+        request.setURIPathQuery(newURI);
+
+        if(decision != null && decision.query != null) {
+            if(decision.queryGroup) {
+                request.setQueryString(decision.query.replace("$Q", originalQuery == null ? "" : originalQuery));
+            } else {
+                request.setQueryString(originalQuery == null ? decision.query : originalQuery + "&" + decision.query);
+            }
+        }
+    }
+
+    private String apply(Decision decision, String target, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        if(decision.location != null) {
+            response.sendRedirect(response.encodeRedirectURL(decision.location));
+            Request.getBaseRequest(request).setHandled(true);
+            return target;
+        }
+
+        if(decision.path != null) {
+            request.setAttribute(DECISION, decision);
+            return decision.path;
+        }
+
+        return null;
+    }
+
+    private void remember(Rules current, String target, Decision decision) {
+        if(cacheSize <= 0) return;
+
+        Cached cached = new Cached(decision);
+        cache.put(target, cached);
+
+        // rules were reloaded concurrently, decision may be stale
+        if(rules != current) cache.remove(target, cached);
+
+        while (cache.size() > cacheSize) evict();
+    }
+
+    /** Removes the least recently used of the first sampled paths, approximate LRU without a global lock */
+    private void evict() {
+        Map.Entry<String, Cached> eldest = null;
+        Iterator<Map.Entry<String, Cached>> sample = cache.entrySet().iterator();
+        for (int i = 0; i < EVICTION_SAMPLES && sample.hasNext(); i++) {
+            Map.Entry<String, Cached> entry = sample.next();
+            if(eldest == null || entry.getValue().used - eldest.getValue().used < 0) eldest = entry;
+        }
+        if(eldest != null) cache.remove(eldest.getKey(), eldest.getValue());
+    }
+
+    private static List<Map.Entry<String, String>> entries(Map<String, String> rules) {
+        List<Map.Entry<String, String>> entries = new ArrayList<>(rules.size());
+        rules.forEach((key, value) -> entries.add(new AbstractMap.SimpleImmutableEntry<>(key, value)));
+        return entries;
+    }
+
+    private static final class Decision {
+        final String location;
+        final String path;
+        final String query;
+        final boolean queryGroup;
+
+        Decision(String location, String path, String query, boolean queryGroup) {
+            this.location = location;
+            this.path = path;
+            this.query = query;
+            this.queryGroup = queryGroup;
+        }
+    }
+
+    /** A cached decision and when it was last used, in {@link System#nanoTime()} */
+    private static final class Cached {
+        final Decision decision;
+        volatile long used = System.nanoTime();
+
+        Cached(Decision decision) {
+            this.decision = decision;
+        }
+    }
+
+    private static final class Rules {
+        final List<Map.Entry<String, String>> patternRedirect;
+        final List<Map.Entry<String, String>> regexRedirect;
+
+        final List<RedirectPatternRule> patterns = new ArrayList<>();
+        final List<String> locations = new ArrayList<>();
+
+        final List<Pattern> regexes = new ArrayList<>();
+        final List<String> replacements = new ArrayList<>();
+        final List<String> queries = new ArrayList<>();
+
+        Rules(Map<String, String> patternRedirect, Map<String, String> regexRedirect) {
+            this.patternRedirect = entries(patternRedirect);
+            this.regexRedirect = entries(regexRedirect);
+
+            patternRedirect.forEach((pattern, target) -> {
+                RedirectPatternRule redirect = new RedirectPatternRule();
+                redirect.setPattern(pattern);
+                redirect.setLocation(target);
+                patterns.add(redirect);
+                locations.add(target);
+            });
+
+            regexRedirect.forEach((regex, replacement) -> {
+                String[] split = replacement.split("\\?", 2);
+                regexes.add(Pattern.compile(regex));
+                replacements.add(split[0]);
+                queries.add(split.length == 2 ? split[1] : null);
+            });
+        }
+
+        /** Applies all regex rewrites in order, like consecutive non-terminating Jetty rules */
+        Decision rewrite(String target) {
+            String current = target;
+            String query = null;
+            boolean matched = false;
+
+            for (int i = 0; i < regexes.size(); i++) {
+                Matcher matcher = regexes.get(i).matcher(current);
+                if(!matcher.matches()) continue;
+
+                String rewritten = replacements.get(i);
+                String q = queries.get(i);
+                for (int g = 1; g <= matcher.groupCount(); g++) {
+                    String group = matcher.group(g);
+                    group = (group == null ? "" : Matcher.quoteReplacement(group));
+                    rewritten = rewritten.replaceAll("\\$" + g, group);
+                    if(q != null) q = q.replaceAll("\\$" + g, group);
+                }
+
+                current = rewritten;
+                query = q;
+                matched = true;
+            }
+
+            if(!matched) return NO_MATCH;
+            return new Decision(null, current, query, query != null && query.contains("$Q"));
+        }
+    }
+}
@@ -1,8 +1,6 @@
 package scraper.nodes.server;
 
-import org.eclipse.jetty.rewrite.handler.RedirectPatternRule;
 import org.eclipse.jetty.rewrite.handler.RewriteHandler;
-import org.eclipse.jetty.rewrite.handler.RewriteRegexRule;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.ServerConnector;
 import scraper.annotations.NotNull;
@@ -23,8 +21,11 @@ import static scraper.api.node.container.NodeLogLevel.*;
 
 /**
  * Redirects urls to other urls.
+ * <p>
+ * Rule decisions are cached per request path. Passing a flow map with different rules reloads the rules and clears the cache.
+ * </p>
  */
-@NodePlugin(value = "0.1.0", customFlowAfter = true)
+@NodePlugin(value = "0.2.0", customFlowAfter = true)
 @Io
 @Stateful
 public final class RedirectServer implements FunctionalNode {
@@ -49,14 +50,27 @@ public final class RedirectServer implements FunctionalNode {
     @FlowKey(defaultValue = "{}")
     private final T<Map<String, String>> patternRedirect = new T<>(){};
 
+    /** Maximum number of cached redirect decisions. 0 disables the cache */
+    @FlowKey(defaultValue = "10000") @Argument
+    private Integer cacheSize;
+
     private final AtomicBoolean started = new AtomicBoolean(false);
 
+    // rule evaluation with decision cache, set once the server is started
+    private volatile RedirectDecisionRule decisions;
+
     @Override
     public void modify(@NotNull FunctionalNodeContainer n, @NotNull FlowMap o) throws NodeException {
         if(!started.getAndSet(true)) {
             n.log(DEBUG,"Starting redirect server...");
             startServer(n, port, o);
             n.log(INFO,"Started redirect server on port {}", port);
+        } else if (decisions != null) {
+            if(decisions.reload(o.eval(patternRedirect), o.eval(regexRedirect))) {
+                n.log(INFO,"Reloaded redirect rules, cache invalidated");
+            }
+            n.log(DEBUG,"Redirect cache: {} hits, {} misses, hit rate {}",
+                    decisions.getHits(), decisions.getMisses(), decisions.getHitRate());
         }
     }
 
@@ -80,19 +94,9 @@ public final class RedirectServer implements FunctionalNode {
         rewrite.setRewritePathInfo(false);
         rewrite.setOriginalPathAttribute("requestedPath");
 
-        patternRedirect.forEach((pattern, target) -> {
-            RedirectPatternRule redirect = new RedirectPatternRule();
-            redirect.setPattern(pattern);
-            redirect.setLocation(target);
-            rewrite.addRule(redirect);
-        });
-
-        regexRedirect.forEach((regex, replacement) -> {
-            RewriteRegexRule reverse = new RewriteRegexRule();
-            reverse.setRegex(regex);
-            reverse.setReplacement(replacement);
-            rewrite.addRule(reverse);
-        });
+        // pattern redirects first, then regex rewrites, evaluated once per path
+        decisions = new RedirectDecisionRule(cacheSize, patternRedirect, regexRedirect);
+        rewrite.addRule(decisions);
 
         server.setHandler(rewrite);
 
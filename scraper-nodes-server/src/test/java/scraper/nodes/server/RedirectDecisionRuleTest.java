@@ -0,0 +1,129 @@
+package scraper.nodes.server;
+
+import org.eclipse.jetty.rewrite.handler.RewriteHandler;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Serves the rule in front of a handler which echoes the rewritten path and query, compares cached and uncached
+ * decisions.
+ */
+public class RedirectDecisionRuleTest {
+
+    private final HttpClient http = HttpClient.newBuilder().followRedirects(HttpClient.Redirect.NEVER).build();
+    private Server server;
+
+    @AfterEach
+    public void stop() throws Exception {
+        if(server != null) server.stop();
+    }
+
+    @Test
+    public void chainedRewritesKeepTheQuery() throws Exception {
+        Map<String, String> regex = new LinkedHashMap<>();
+        regex.put("/a/(.*)", "/b/$1?first=$1");
+        regex.put("/b/(.*)", "/c/$1?$Q&second=$1");
+        URI uri = serve(new RedirectDecisionRule(10, Map.of(), regex));
+
+        assertEquals("/c/v?original=1&second=v", get(uri, "/a/v?original=1").body());
+        assertEquals("/c/w?original=2&second=w", get(uri, "/b/w?original=2").body());
+        assertEquals("/other", get(uri, "/other").body());
+    }
+
+    @Test
+    public void cachedDecisionsEqualUncachedDecisions() throws Exception {
+        Map<String, String> pattern = Map.of("/old/*", "http://redirected.org/new");
+        Map<String, String> regex = new LinkedHashMap<>();
+        regex.put("/a/(.*)", "/b/$1?first=$1");
+        regex.put("/b/(.*)", "/c/$1?$Q&second=$1");
+
+        RedirectDecisionRule uncached = new RedirectDecisionRule(0, pattern, regex);
+        URI uncachedUri = serve(uncached);
+        String[] paths = {"/old/x", "/a/v?original=1", "/a/v?original=2", "/b/w", "/other"};
+        String[] expected = new String[paths.length];
+        for (int i = 0; i < paths.length; i++) expected[i] = describe(get(uncachedUri, paths[i]));
+        stop();
+
+        RedirectDecisionRule cached = new RedirectDecisionRule(10, pattern, regex);
+        URI cachedUri = serve(cached);
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < paths.length; i++) assertEquals(expected[i], describe(get(cachedUri, paths[i])), paths[i]);
+        }
+
+        assertEquals(0, uncached.getHits());
+        // the query is not part of the cached path
+        assertEquals(4, cached.getMisses());
+        assertEquals(6, cached.getHits());
+        assertTrue(expected[0].startsWith("302 http://redirected.org/new"), expected[0]);
+    }
+
+    @Test
+    public void cacheIsBounded() throws Exception {
+        RedirectDecisionRule rule = new RedirectDecisionRule(2, Map.of(), Map.of("/a/(.*)", "/b/$1"));
+        URI uri = serve(rule);
+
+        for (int i = 0; i < 10; i++) assertEquals("/b/" + i, get(uri, "/a/" + i).body());
+        assertTrue(rule.cached() <= 2, "Cached " + rule.cached() + " paths");
+    }
+
+    @Test
+    public void reloadInvalidatesTheCache() throws Exception {
+        RedirectDecisionRule rule = new RedirectDecisionRule(10, Map.of(), Map.of("/a/(.*)", "/b/$1"));
+        URI uri = serve(rule);
+        assertEquals("/b/x", get(uri, "/a/x").body());
+
+        assertTrue(rule.reload(Map.of(), Map.of("/a/(.*)", "/c/$1")));
+        assertEquals(0, rule.cached());
+        assertEquals("/c/x", get(uri, "/a/x").body());
+    }
+
+    private URI serve(RedirectDecisionRule rule) throws Exception {
+        server = new Server();
+        ServerConnector connector = new ServerConnector(server);
+        connector.setPort(0);
+        server.addConnector(connector);
+
+        RewriteHandler rewrite = new RewriteHandler();
+        rewrite.setRewriteRequestURI(true);
+        rewrite.setRewritePathInfo(false);
+        rewrite.addRule(rule);
+        rewrite.setHandler(new AbstractHandler() {
+            @Override
+            public void handle(String target, Request baseRequest, HttpServletRequest request,
+                               HttpServletResponse response) throws IOException {
+                String query = request.getQueryString();
+                response.getWriter().print(request.getRequestURI() + (query == null ? "" : "?" + query));
+                baseRequest.setHandled(true);
+            }
+        });
+        server.setHandler(rewrite);
+        server.start();
+
+        return URI.create("http://localhost:" + connector.getLocalPort());
+    }
+
+    private HttpResponse<String> get(URI server, String pathAndQuery) throws Exception {
+        return http.send(HttpRequest.newBuilder(server.resolve(pathAndQuery)).build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private static String describe(HttpResponse<String> response) {
+        return response.statusCode() + " " + response.headers().firstValue("Location").orElse(response.body());
+    }
+}